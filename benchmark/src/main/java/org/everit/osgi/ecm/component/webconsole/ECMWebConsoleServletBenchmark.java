@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRequirement;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.webconsole.benchmark.NullWriter;
+import org.everit.osgi.ecm.component.webconsole.benchmark.StandIn;
+import org.everit.osgi.ecm.component.webconsole.benchmark.SyntheticFramework;
+import org.everit.osgi.ecm.component.webconsole.graph.ECMGraphModel;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Wire;
+
+/**
+ * Measures the rendering of the components table and the details of the component revisions by
+ * {@link ECMWebConsoleServlet}. The table benchmarks render one page with
+ * {@link ComponentTableQuery#DEFAULT_PAGE_SIZE} rows and the fragment benchmarks render the
+ * details of one revision, so all results are per row. The allocated bytes per row can be
+ * reported by running the benchmarks with the <code>-prof gc</code> option
+ * (<code>gc.alloc.rate.norm</code>).
+ *
+ * <p>
+ * Besides the rendering of the whole page, the query of the table index, the sum of the component
+ * states and the formatting of the clauses that the template shows are measured separately, so
+ * the cost of the template engine can be told apart from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class ECMWebConsoleServletBenchmark {
+
+  private static final String APP_ROOT = "/system/console";
+
+  private static final String PLUGIN_ROOT = APP_ROOT + "/everit_ecm_component";
+
+  private static final int ROWS_PER_PAGE = ComponentTableQuery.DEFAULT_PAGE_SIZE;
+
+  private static final long SEED = 42;
+
+  private static HttpServletRequest createRequest(final String requestURI) {
+    final Map<String, Object> attributes = new HashMap<>();
+    attributes.put("felix.webconsole.appRoot", APP_ROOT);
+    attributes.put("felix.webconsole.pluginRoot", PLUGIN_ROOT);
+
+    Map<String, Object> answers = StandIn.answers("getRequestURI", requestURI);
+    answers.put("getAttribute", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        return attributes.get(args[0]);
+      }
+    });
+    return StandIn.create(HttpServletRequest.class, requestURI, answers);
+  }
+
+  /**
+   * Servlet that caches the rendered revision details.
+   */
+  private ECMWebConsoleServlet cachingServlet;
+
+  private final Clause2StringConverter clauseConverter = new Clause2StringConverter();
+
+  @Param({ "100", "1000", "10000" })
+  public int componentCount;
+
+  /**
+   * Fragment requests of the revisions that are on the first page of the table.
+   */
+  private HttpServletRequest[] fragmentRequests;
+
+  private SyntheticFramework framework;
+
+  /**
+   * The ratio of the service requirements of the unsatisfied components that are resolved to a
+   * guessed capability.
+   */
+  @Param({ "0.5" })
+  public double guessedRatio;
+
+  private int nextFragmentRequestIndex = 0;
+
+  /**
+   * Servlet that renders the revision details for every request, as its cache cannot hold any
+   * fragment.
+   */
+  private ECMWebConsoleServlet renderingServlet;
+
+  private HttpServletResponse response;
+
+  private ECMStateTracker stateTracker;
+
+  private ComponentTableIndex tableIndex;
+
+  private HttpServletRequest tablePageRequest;
+
+  @Param({ "0.1" })
+  public double unsatisfiedRatio;
+
+  private ECMWebConsoleServlet createServlet(final RevisionFragmentCache fragmentCache) {
+    WebConsolePluginTracker threadViewerTracker;
+    try {
+      threadViewerTracker =
+          new WebConsolePluginTracker(framework.getBundleContext(), "threads");
+    } catch (InvalidSyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+    return new ECMWebConsoleServlet(framework.getContainerIndex(), framework.getBundleContext(),
+        stateTracker, new ComponentEventStream(stateTracker), fragmentCache,
+        threadViewerTracker, new RequestMetrics(),
+        new ECMGraphModel(framework.getBundleContext(), framework.getContainerIndex(),
+            new FilterCache()));
+  }
+
+  /**
+   * Formats the clauses of the requirements, the wired capabilities and the capabilities of the
+   * revisions on the first page in the same way as the template does.
+   *
+   * @return The length of the formatted clauses, so the formatting cannot be eliminated.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ROWS_PER_PAGE)
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public int formatClauses() {
+    int result = 0;
+    ComponentTablePage tablePage = tableIndex.query(ComponentTableQuery.parse(tablePageRequest));
+    for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> entry : tablePage
+        .getContainers().entrySet()) {
+      ComponentContainer<?> container = entry.getValue();
+      for (ComponentRevision<?> revision : tablePage.getRevisions(entry.getKey())) {
+        for (Requirement requirement : revision.getRequirements(null)) {
+          result += clauseConverter
+              .convertClauseMapToString((Map) requirement.getDirectives(), ":=").length();
+          result += clauseConverter
+              .convertClauseMapToString(requirement.getAttributes(), "=").length();
+          for (Wire wire : container
+              .getWiresByRequirement((ComponentRequirement<?, ?>) requirement)) {
+            result += formatCapability(wire.getCapability()).length();
+          }
+        }
+        for (Capability capability : revision.getCapabilities(null)) {
+          result += formatCapability(capability).length();
+        }
+      }
+    }
+    return result;
+  }
+
+  private String formatCapability(final Capability capability) {
+    return clauseConverter.convertClauseToString(capability.getNamespace(),
+        capability.getAttributes(), capability.getDirectives());
+  }
+
+  /**
+   * Queries the first page of the table from the index without rendering it.
+   *
+   * @return The page.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ROWS_PER_PAGE)
+  public ComponentTablePage queryTablePage() {
+    return tableIndex.query(ComponentTableQuery.parse(tablePageRequest));
+  }
+
+  /**
+   * Renders the details of a revision from the cache.
+   */
+  @Benchmark
+  public void renderCachedRevisionFragment() throws ServletException, IOException {
+    cachingServlet.service(nextFragmentRequest(), response);
+  }
+
+  /**
+   * Renders the details of a revision with the template.
+   */
+  @Benchmark
+  public void renderRevisionFragment() throws ServletException, IOException {
+    renderingServlet.service(nextFragmentRequest(), response);
+  }
+
+  /**
+   * Renders the first page of the components table.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ROWS_PER_PAGE)
+  public void renderTablePage() throws ServletException, IOException {
+    renderingServlet.service(tablePageRequest, response);
+  }
+
+  private HttpServletRequest nextFragmentRequest() {
+    HttpServletRequest result = fragmentRequests[nextFragmentRequestIndex];
+    nextFragmentRequestIndex = (nextFragmentRequestIndex + 1) % fragmentRequests.length;
+    return result;
+  }
+
+  /**
+   * Builds the synthetic framework and the servlets.
+   */
+  @Setup
+  public void setUp() {
+    framework = new SyntheticFramework(componentCount, unsatisfiedRatio, guessedRatio, SEED);
+
+    stateTracker = new ECMStateTracker(framework.getBundleContext(),
+        framework.getContainerIndex());
+    // Counts the states and indexes the revisions as the background check would
+    stateTracker.checkGeneration();
+
+    tableIndex = new ComponentTableIndex(framework.getContainerIndex(), stateTracker);
+    renderingServlet = createServlet(new RevisionFragmentCache(0));
+    cachingServlet = createServlet(new RevisionFragmentCache());
+
+    final PrintWriter writer = new PrintWriter(new NullWriter());
+    response = StandIn.create(HttpServletResponse.class, "HttpServletResponse",
+        StandIn.answers("getWriter", writer));
+
+    tablePageRequest = createRequest(PLUGIN_ROOT);
+
+    ComponentTablePage tablePage = tableIndex.query(ComponentTableQuery.parse(tablePageRequest));
+    List<HttpServletRequest> requests = new ArrayList<>();
+    for (ServiceReference<ComponentContainer<?>> containerReference : tablePage.getContainers()
+        .keySet()) {
+      for (ComponentRevision<?> revision : tablePage.getRevisions(containerReference)) {
+        requests.add(createRequest(PLUGIN_ROOT + '/'
+            + containerReference.getProperty(Constants.SERVICE_ID) + '/'
+            + revision.getProperties().get(Constants.SERVICE_PID) + ".fragment"));
+      }
+    }
+    fragmentRequests = requests.toArray(new HttpServletRequest[requests.size()]);
+  }
+
+  /**
+   * Sums the number of revisions by state as the table page does.
+   *
+   * @return The sum.
+   */
+  @Benchmark
+  public ComponentStateSum sumComponentStates() {
+    return stateTracker.getComponentStateSum();
+  }
+}
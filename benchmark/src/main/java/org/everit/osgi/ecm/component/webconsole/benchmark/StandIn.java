@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory stand-in of a framework or ECM interface. The stand-in answers the calls of the
+ * interface methods by their names from a map, so only the methods that the webconsole calls have
+ * to be specified. Stand-ins are equal only to themselves.
+ */
+public final class StandIn implements InvocationHandler {
+
+  /**
+   * Calculates the answer of a call from its arguments.
+   */
+  public interface Answer {
+
+    Object answer(Object[] args);
+  }
+
+  /**
+   * Creates a stand-in.
+   *
+   * @param name
+   *          The name of the stand-in that is returned by {@link Object#toString()}.
+   * @param answers
+   *          The return values or {@link Answer}s by method name.
+   * @param interfaces
+   *          The interfaces that the stand-in implements.
+   * @return The stand-in.
+   */
+  public static Object create(final String name, final Map<String, Object> answers,
+      final Class<?>... interfaces) {
+    return Proxy.newProxyInstance(StandIn.class.getClassLoader(), interfaces,
+        new StandIn(name, answers));
+  }
+
+  /**
+   * Creates a stand-in that implements one interface.
+   *
+   * @param type
+   *          The interface.
+   * @param name
+   *          The name of the stand-in that is returned by {@link Object#toString()}.
+   * @param answers
+   *          The return values or {@link Answer}s by method name.
+   * @param <T>
+   *          The type of the interface.
+   * @return The stand-in.
+   */
+  public static <T> T create(final Class<T> type, final String name,
+      final Map<String, Object> answers) {
+    return type.cast(create(name, answers, type));
+  }
+
+  /**
+   * Creates a new answer map with one answer. More answers can be added with
+   * {@link Map#put(Object, Object)}.
+   *
+   * @param methodName
+   *          The name of the method.
+   * @param answer
+   *          The return value or {@link Answer} of the method.
+   * @return The modifiable answer map.
+   */
+  public static Map<String, Object> answers(final String methodName, final Object answer) {
+    Map<String, Object> result = new HashMap<>();
+    result.put(methodName, answer);
+    return result;
+  }
+
+  private static Object defaultValue(final Class<?> returnType) {
+    if (!returnType.isPrimitive() || (returnType == void.class)) {
+      return null;
+    }
+    if (returnType == boolean.class) {
+      return Boolean.FALSE;
+    }
+    if (returnType == char.class) {
+      return Character.valueOf((char) 0);
+    }
+    if (returnType == long.class) {
+      return Long.valueOf(0);
+    }
+    if (returnType == float.class) {
+      return Float.valueOf(0);
+    }
+    if (returnType == double.class) {
+      return Double.valueOf(0);
+    }
+    if (returnType == byte.class) {
+      return Byte.valueOf((byte) 0);
+    }
+    if (returnType == short.class) {
+      return Short.valueOf((short) 0);
+    }
+    return Integer.valueOf(0);
+  }
+
+  private final Map<String, Object> answers;
+
+  private final String name;
+
+  private StandIn(final String name, final Map<String, Object> answers) {
+    this.name = name;
+    this.answers = answers;
+  }
+
+  @Override
+  public Object invoke(final Object proxy, final Method method, final Object[] args) {
+    String methodName = method.getName();
+    Object answer = answers.get(methodName);
+    if (answer instanceof Answer) {
+      return ((Answer) answer).answer((args == null) ? new Object[0] : args);
+    }
+    if (answer != null) {
+      return answer;
+    }
+
+    if ("equals".equals(methodName) && (args != null) && (args.length == 1)) {
+      return proxy == args[0];
+    }
+    if ("hashCode".equals(methodName) && (args == null)) {
+      return System.identityHashCode(proxy);
+    }
+    if ("toString".equals(methodName) && (args == null)) {
+      return name;
+    }
+    return defaultValue(method.getReturnType());
+  }
+}
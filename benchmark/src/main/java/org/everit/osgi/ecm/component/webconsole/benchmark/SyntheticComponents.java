@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.benchmark;
+
+/**
+ * Component and service types of the synthetic component containers. The webconsole guesses the
+ * services of the not active components from these types.
+ */
+public final class SyntheticComponents {
+
+  /**
+   * Implementation of {@link SyntheticService0}.
+   */
+  public static class SyntheticComponent0 implements SyntheticService0 {
+  }
+
+  /**
+   * Implementation of {@link SyntheticService1}.
+   */
+  public static class SyntheticComponent1 implements SyntheticService1 {
+  }
+
+  /**
+   * Implementation of {@link SyntheticService2}.
+   */
+  public static class SyntheticComponent2 implements SyntheticService2 {
+  }
+
+  /**
+   * Implementation of {@link SyntheticService3}.
+   */
+  public static class SyntheticComponent3 implements SyntheticService3 {
+  }
+
+  /**
+   * Service interface of {@link SyntheticComponent0}.
+   */
+  public interface SyntheticService0 {
+  }
+
+  /**
+   * Service interface of {@link SyntheticComponent1}.
+   */
+  public interface SyntheticService1 {
+  }
+
+  /**
+   * Service interface of {@link SyntheticComponent2}.
+   */
+  public interface SyntheticService2 {
+  }
+
+  /**
+   * Service interface of {@link SyntheticComponent3}.
+   */
+  public interface SyntheticService3 {
+  }
+
+  static final Class<?>[] COMPONENT_TYPES = new Class<?>[] {
+      SyntheticComponent0.class, SyntheticComponent1.class, SyntheticComponent2.class,
+      SyntheticComponent3.class };
+
+  static final Class<?>[] SERVICE_TYPES = new Class<?>[] {
+      SyntheticService0.class, SyntheticService1.class, SyntheticService2.class,
+      SyntheticService3.class };
+
+  private SyntheticComponents() {
+  }
+}
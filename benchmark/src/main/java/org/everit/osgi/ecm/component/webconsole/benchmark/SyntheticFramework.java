@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.everit.osgi.ecm.component.ECMComponentConstants;
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRequirement;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.webconsole.ComponentContainerIndex;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.everit.osgi.ecm.metadata.ComponentMetadata.ComponentMetadataBuilder;
+import org.everit.osgi.ecm.metadata.ConfigurationPolicy;
+import org.everit.osgi.ecm.metadata.ServiceMetadata.ServiceMetadataBuilder;
+import org.everit.osgi.linkage.ServiceCapability;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Wire;
+import org.osgi.service.metatype.MetaTypeProvider;
+import org.osgi.service.metatype.ObjectClassDefinition;
+
+/**
+ * Builds an in-memory OSGi framework with ECM component containers that can be processed by the
+ * webconsole without a real framework. Every container has one revision. The active components
+ * register a service and their service requirements are wired to services of other active
+ * components. The service requirements of the unsatisfied components are not wired. Some of them
+ * point to the services of other unsatisfied components, so the webconsole guesses the
+ * capability, the others point to services that do not exist. Every component also has a bundle
+ * requirement that is wired to a package of a synthetic bundle.
+ *
+ * <p>
+ * The framework is built from a seeded random generator, so the same parameters always produce
+ * the same graph.
+ */
+public class SyntheticFramework {
+
+  private static final int COMPONENTS_PER_BUNDLE = 20;
+
+  private static final String PACKAGE_NAMESPACE = "osgi.wiring.package";
+
+  private static final int PACKAGES_PER_BUNDLE = 5;
+
+  private static final int SERVICE_REQUIREMENTS_PER_COMPONENT = 2;
+
+  private static final Version VERSION = new Version(1, 0, 0);
+
+  private static Map<String, Object> answers() {
+    return new HashMap<>();
+  }
+
+  private static Map<String, Object> answers(final String methodName, final Object answer) {
+    return StandIn.answers(methodName, answer);
+  }
+
+  private static ServiceReference<?> createServiceReference(final long serviceId,
+      final Bundle bundle, final Map<String, Object> properties) {
+
+    final Map<String, Object> allProperties = new LinkedHashMap<>(properties);
+    allProperties.put(Constants.SERVICE_ID, serviceId);
+
+    Map<String, Object> answers = answers("getBundle", bundle);
+    answers.put("getProperty", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        return allProperties.get(args[0]);
+      }
+    });
+    answers.put("getPropertyKeys", allProperties.keySet().toArray(new String[0]));
+    answers.put("isAssignableTo", Boolean.TRUE);
+    answers.put("compareTo", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        // Same ranking everywhere, so the reference with the lower service id is ranked higher
+        long otherServiceId = (Long) ((ServiceReference<?>) args[0])
+            .getProperty(Constants.SERVICE_ID);
+        return Long.compare(otherServiceId, serviceId);
+      }
+    });
+    return StandIn.create(ServiceReference.class, "ServiceReference[" + serviceId + "]",
+        answers);
+  }
+
+  private final BundleContext bundleContext;
+
+  private final ComponentContainerIndex containerIndex;
+
+  private final List<ComponentContainer<?>> containers = new ArrayList<>();
+
+  private final Map<Class<?>, ComponentMetadata> metadataByType = new HashMap<>();
+
+  private long nextServiceId = 1;
+
+  private final Map<ServiceReference<?>, Object> serviceByReference = new IdentityHashMap<>();
+
+  private final Bundle webConsoleBundle;
+
+  /**
+   * Builds the framework.
+   *
+   * @param componentCount
+   *          The number of component containers.
+   * @param unsatisfiedRatio
+   *          The ratio of the components that are unsatisfied between 0 and 1.
+   * @param guessedRatio
+   *          The ratio of the service requirements of the unsatisfied components that point to the
+   *          service of another unsatisfied component, between 0 and 1.
+   * @param seed
+   *          The seed of the random generator.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public SyntheticFramework(final int componentCount, final double unsatisfiedRatio,
+      final double guessedRatio, final long seed) {
+
+    Random random = new Random(seed);
+
+    Map<String, Object> bundleContextAnswers = answers();
+    bundleContext = StandIn.create(BundleContext.class, "BundleContext", bundleContextAnswers);
+    webConsoleBundle = createBundle(0, "org.everit.osgi.ecm.component.webconsole", 0);
+    bundleContextAnswers.put("createFilter", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        try {
+          return FrameworkUtil.createFilter((String) args[0]);
+        } catch (InvalidSyntaxException e) {
+          throw new IllegalArgumentException(e);
+        }
+      }
+    });
+    bundleContextAnswers.put("getBundle", webConsoleBundle);
+    bundleContextAnswers.put("getService", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        return serviceByReference.get(args[0]);
+      }
+    });
+    bundleContextAnswers.put("ungetService", Boolean.TRUE);
+
+    int bundleCount = Math.max(1, componentCount / COMPONENTS_PER_BUNDLE);
+    List<Bundle> bundles = new ArrayList<>(bundleCount);
+    for (int i = 0; i < bundleCount; i++) {
+      bundles.add(createBundle(i + 1, "synthetic.bundle" + i, PACKAGES_PER_BUNDLE));
+    }
+
+    ComponentState[] states = new ComponentState[componentCount];
+    List<Integer> activeComponents = new ArrayList<>();
+    List<Integer> unsatisfiedComponents = new ArrayList<>();
+    for (int i = 0; i < componentCount; i++) {
+      if (random.nextDouble() < unsatisfiedRatio) {
+        states[i] = ComponentState.UNSATISFIED;
+        unsatisfiedComponents.add(i);
+      } else {
+        states[i] = ComponentState.ACTIVE;
+        activeComponents.add(i);
+      }
+    }
+
+    // The services are registered first, so the requirements can be wired to any of them
+    ServiceReference<?>[] serviceReferences = new ServiceReference<?>[componentCount];
+    for (int i : activeComponents) {
+      Map<String, Object> properties = componentProperties(i);
+      properties.put(Constants.OBJECTCLASS, new String[] { serviceType(i).getName() });
+      serviceReferences[i] =
+          createServiceReference(nextServiceId++, bundles.get(i % bundleCount), properties);
+      serviceByReference.put(serviceReferences[i], new Object());
+    }
+
+    containerIndex = new ComponentContainerIndex(bundleContext);
+    for (int i = 0; i < componentCount; i++) {
+      Bundle bundle = bundles.get(i % bundleCount);
+      ComponentContainer<?> container = createContainer(i, states[i], bundle,
+          serviceReferences, activeComponents, unsatisfiedComponents, bundles, guessedRatio,
+          random);
+      containers.add(container);
+
+      Map<String, Object> properties = new LinkedHashMap<>();
+      properties.put(Constants.OBJECTCLASS, new String[] { ComponentContainer.class.getName() });
+      properties.put(ECMComponentConstants.SERVICE_PROP_COMPONENT_ID, componentId(i));
+      properties.put(ECMComponentConstants.SERVICE_PROP_COMPONENT_VERSION, VERSION);
+      ServiceReference containerReference =
+          createServiceReference(nextServiceId++, bundle, properties);
+      serviceByReference.put(containerReference, container);
+      containerIndex.addingService(containerReference);
+    }
+  }
+
+  private String componentId(final int componentIndex) {
+    return "synthetic.component" + componentIndex;
+  }
+
+  private Map<String, Object> componentProperties(final int componentIndex) {
+    Map<String, Object> properties = new LinkedHashMap<>();
+    properties.put(Constants.SERVICE_PID, componentId(componentIndex));
+    properties.put(ECMComponentConstants.SERVICE_PROP_COMPONENT_ID, componentId(componentIndex));
+    properties.put(ECMComponentConstants.SERVICE_PROP_COMPONENT_VERSION, VERSION);
+    properties.put("synthetic.group", "group" + (componentIndex % 10));
+    properties.put("synthetic.tags", Arrays.asList("tag" + (componentIndex % 3),
+        "tag" + (componentIndex % 7)));
+    return properties;
+  }
+
+  private Bundle createBundle(final long bundleId, final String symbolicName,
+      final int packageCount) {
+
+    Map<String, Object> bundleAnswers = answers("getBundleId", bundleId);
+    bundleAnswers.put("getSymbolicName", symbolicName);
+    bundleAnswers.put("getVersion", VERSION);
+    Bundle bundle = StandIn.create(Bundle.class, symbolicName, bundleAnswers);
+
+    Map<String, Object> revisionAnswers = answers("getBundle", bundle);
+    revisionAnswers.put("getSymbolicName", symbolicName);
+    revisionAnswers.put("getVersion", VERSION);
+    BundleRevision bundleRevision =
+        StandIn.create(BundleRevision.class, symbolicName + " revision", revisionAnswers);
+
+    List<Capability> capabilities = new ArrayList<>(packageCount);
+    for (int i = 0; i < packageCount; i++) {
+      Map<String, Object> attributes = new LinkedHashMap<>();
+      attributes.put(PACKAGE_NAMESPACE, symbolicName + ".package" + i);
+      attributes.put(Constants.VERSION_ATTRIBUTE, VERSION);
+
+      Map<String, Object> capabilityAnswers = answers("getRevision", bundleRevision);
+      capabilityAnswers.put("getResource", bundleRevision);
+      capabilityAnswers.put("getNamespace", PACKAGE_NAMESPACE);
+      capabilityAnswers.put("getAttributes", attributes);
+      capabilityAnswers.put("getDirectives", Collections.emptyMap());
+      capabilities.add(StandIn.create(BundleCapability.class,
+          symbolicName + " package" + i, capabilityAnswers));
+    }
+    revisionAnswers.put("getCapabilities", Collections.unmodifiableList(capabilities));
+
+    final Map<String, Object> wiringAnswers =
+        answers("getClassLoader", SyntheticFramework.class.getClassLoader());
+    wiringAnswers.put("getRevision", bundleRevision);
+    final BundleWiring bundleWiring =
+        StandIn.create(BundleWiring.class, symbolicName + " wiring", wiringAnswers);
+
+    final BundleRevision adaptedRevision = bundleRevision;
+    bundleAnswers.put("adapt", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        if (args[0] == BundleWiring.class) {
+          return bundleWiring;
+        }
+        if (args[0] == BundleRevision.class) {
+          return adaptedRevision;
+        }
+        return null;
+      }
+    });
+    return bundle;
+  }
+
+  private ComponentContainer<?> createContainer(final int componentIndex,
+      final ComponentState state, final Bundle bundle,
+      final ServiceReference<?>[] serviceReferences, final List<Integer> activeComponents,
+      final List<Integer> unsatisfiedComponents, final List<Bundle> bundles,
+      final double guessedRatio, final Random random) {
+
+    Map<String, Object> containerAnswers = answers();
+    ComponentContainer<?> container = (ComponentContainer<?>) StandIn.create(
+        componentId(componentIndex), containerAnswers, ComponentContainer.class,
+        MetaTypeProvider.class);
+
+    Map<String, Object> revisionAnswers = answers("getState", state);
+    revisionAnswers.put("getProperties",
+        Collections.unmodifiableMap(componentProperties(componentIndex)));
+    revisionAnswers.put("getComponentContainer", container);
+    revisionAnswers.put("getDeclaringResource", bundle.adapt(BundleRevision.class));
+    ComponentRevision<?> revision = StandIn.create(ComponentRevision.class,
+        componentId(componentIndex) + " revision", revisionAnswers);
+
+    List<Capability> capabilities = new ArrayList<>();
+    if (serviceReferences[componentIndex] != null) {
+      capabilities.add(new ServiceCapability(serviceReferences[componentIndex]));
+    }
+    revisionAnswers.put("getCapabilities", capabilities);
+
+    final Map<Requirement, Wire[]> wiresByRequirement = new IdentityHashMap<>();
+    List<Requirement> requirements = new ArrayList<>();
+    for (int i = 0; i < SERVICE_REQUIREMENTS_PER_COMPONENT; i++) {
+      int target;
+      if (state == ComponentState.ACTIVE) {
+        target = activeComponents.get(random.nextInt(activeComponents.size()));
+      } else if (random.nextDouble() < guessedRatio) {
+        target = unsatisfiedComponents.get(random.nextInt(unsatisfiedComponents.size()));
+      } else {
+        // A service that nobody provides
+        target = -1;
+      }
+
+      Map<String, String> directives = new LinkedHashMap<>();
+      directives.put(Constants.OBJECTCLASS,
+          serviceType((target >= 0) ? target : componentIndex).getName());
+      directives.put(Constants.FILTER_DIRECTIVE, "(" + Constants.SERVICE_PID + "="
+          + ((target >= 0) ? componentId(target) : "synthetic.missing" + componentIndex) + ")");
+
+      ComponentRequirement<?, ?> requirement = createRequirement("serviceRequirement" + i,
+          ServiceCapability.class, "osgi.service", directives, revision);
+      requirements.add(requirement);
+      if (state == ComponentState.ACTIVE) {
+        wiresByRequirement.put(requirement, new Wire[] {
+            createWire(requirement, new ServiceCapability(serviceReferences[target])) });
+      } else {
+        wiresByRequirement.put(requirement, new Wire[0]);
+      }
+    }
+
+    Bundle providerBundle = bundles.get(random.nextInt(bundles.size()));
+    BundleCapability packageCapability = (BundleCapability) providerBundle
+        .adapt(BundleRevision.class).getCapabilities(null)
+        .get(random.nextInt(PACKAGES_PER_BUNDLE));
+    Map<String, String> bundleRequirementDirectives = new LinkedHashMap<>();
+    bundleRequirementDirectives.put(Constants.FILTER_DIRECTIVE, "(" + PACKAGE_NAMESPACE + "="
+        + packageCapability.getAttributes().get(PACKAGE_NAMESPACE) + ")");
+    ComponentRequirement<?, ?> bundleRequirement = createRequirement("bundleRequirement",
+        BundleCapability.class, PACKAGE_NAMESPACE, bundleRequirementDirectives, revision);
+    requirements.add(bundleRequirement);
+    wiresByRequirement.put(bundleRequirement,
+        new Wire[] { createWire(bundleRequirement, packageCapability) });
+
+    revisionAnswers.put("getRequirements", requirements);
+
+    Map<String, Object> ocdAnswers = answers("getName", "Synthetic component " + componentIndex);
+    ocdAnswers.put("getDescription", "Synthetic component for benchmarks");
+    ocdAnswers.put("getID", componentId(componentIndex));
+
+    containerAnswers.put("getResources", new ComponentRevision<?>[] { revision });
+    containerAnswers.put("getComponentMetadata", getMetadata(componentIndex));
+    containerAnswers.put("getObjectClassDefinition", StandIn.create(ObjectClassDefinition.class,
+        componentId(componentIndex) + " OCD", ocdAnswers));
+    containerAnswers.put("getWiresByRequirement", new StandIn.Answer() {
+
+      @Override
+      public Object answer(final Object[] args) {
+        Wire[] wires = wiresByRequirement.get(args[0]);
+        return (wires != null) ? wires : new Wire[0];
+      }
+    });
+    return container;
+  }
+
+  private ComponentRequirement<?, ?> createRequirement(final String requirementId,
+      final Class<?> acceptedCapabilityType, final String namespace,
+      final Map<String, String> directives, final ComponentRevision<?> revision) {
+
+    Map<String, Object> answers = answers("getRequirementId", requirementId);
+    answers.put("getAcceptedCapabilityType", acceptedCapabilityType);
+    answers.put("getNamespace", namespace);
+    answers.put("getAttributes", Collections.emptyMap());
+    answers.put("getDirectives", Collections.unmodifiableMap(directives));
+    answers.put("getResource", revision);
+    return StandIn.create(ComponentRequirement.class, revision + " " + requirementId, answers);
+  }
+
+  private Wire createWire(final Requirement requirement, final Capability capability) {
+    Map<String, Object> answers = answers("getCapability", capability);
+    answers.put("getRequirement", requirement);
+    answers.put("getProvider", capability.getResource());
+    answers.put("getRequirer", requirement.getResource());
+    return StandIn.create(Wire.class, requirement + " wire", answers);
+  }
+
+  /**
+   * The context of the webconsole bundle in the framework.
+   *
+   * @return The bundle context.
+   */
+  public BundleContext getBundleContext() {
+    return bundleContext;
+  }
+
+  /**
+   * The index of the containers, filled as a real container tracker would fill it.
+   *
+   * @return The container index.
+   */
+  public ComponentContainerIndex getContainerIndex() {
+    return containerIndex;
+  }
+
+  public List<ComponentContainer<?>> getContainers() {
+    return containers;
+  }
+
+  private ComponentMetadata getMetadata(final int componentIndex) {
+    Class<?> componentType =
+        SyntheticComponents.COMPONENT_TYPES[componentIndex
+            % SyntheticComponents.COMPONENT_TYPES.length];
+    ComponentMetadata metadata = metadataByType.get(componentType);
+    if (metadata == null) {
+      metadata = new ComponentMetadataBuilder()
+          .withComponentId(componentType.getName())
+          .withType(componentType.getName())
+          .withConfigurationPolicy(ConfigurationPolicy.OPTIONAL)
+          .withService(new ServiceMetadataBuilder()
+              .withClazzes(new Class<?>[] { serviceType(componentIndex) }).build())
+          .build();
+      metadataByType.put(componentType, metadata);
+    }
+    return metadata;
+  }
+
+  public Bundle getWebConsoleBundle() {
+    return webConsoleBundle;
+  }
+
+  private Class<?> serviceType(final int componentIndex) {
+    return SyntheticComponents.SERVICE_TYPES[componentIndex
+        % SyntheticComponents.SERVICE_TYPES.length];
+  }
+}
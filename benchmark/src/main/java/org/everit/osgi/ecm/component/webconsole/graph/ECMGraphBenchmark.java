@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.webconsole.FilterCache;
+import org.everit.osgi.ecm.component.webconsole.benchmark.NullWriter;
+import org.everit.osgi.ecm.component.webconsole.benchmark.SyntheticFramework;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the generation of the ECM graph from the component containers and the JSON
+ * serialization of the graph. The graph is generated by a new {@link ECMGraphModel} in every
+ * invocation, so all container fragments are generated and assembled. The allocation rate per
+ * operation can be reported by running the benchmarks with the <code>-prof gc</code> option.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+public class ECMGraphBenchmark {
+
+  private static final long SEED = 42;
+
+  @Param({ "100", "1000", "10000", "50000" })
+  public int componentCount;
+
+  private SyntheticFramework framework;
+
+  private ECMGraphDTO graph;
+
+  /**
+   * The ratio of the service requirements of the unsatisfied components that are resolved to a
+   * guessed capability.
+   */
+  @Param({ "0.5" })
+  public double guessedRatio;
+
+  @Param({ "0.1" })
+  public double unsatisfiedRatio;
+
+  private final Writer writer = new NullWriter();
+
+  /**
+   * Generates the whole graph of the synthetic framework.
+   *
+   * @return The graph.
+   */
+  @Benchmark
+  public ECMGraphDTO generateGraph() {
+    ECMGraphModel graphModel = new ECMGraphModel(framework.getBundleContext(),
+        framework.getContainerIndex(), new FilterCache());
+    return graphModel.getGraph(null);
+  }
+
+  /**
+   * Builds the synthetic framework and the graph that is serialized.
+   */
+  @Setup
+  public void setUp() {
+    framework = new SyntheticFramework(componentCount, unsatisfiedRatio, guessedRatio, SEED);
+    graph = generateGraph();
+  }
+
+  @Benchmark
+  public void writeCompactGraphJson() throws IOException {
+    ECMGraphWebConsolePlugin.writeGraphJson(graph, writer, true);
+  }
+
+  @Benchmark
+  public void writeGraphJson() throws IOException {
+    ECMGraphWebConsolePlugin.writeGraphJson(graph, writer, false);
+  }
+}
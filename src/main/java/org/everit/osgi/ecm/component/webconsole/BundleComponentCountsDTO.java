@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * The number of the component containers, component revisions and unsatisfied requirements of the
+ * components that are registered by one bundle.
+ */
+public class BundleComponentCountsDTO {
+
+  public long bundleId;
+
+  public int containerCount;
+
+  /**
+   * The number of revisions by the ordinal of their {@link ComponentState}.
+   */
+  public int[] revisionCountByState = new int[ComponentState.values().length];
+
+  public String symbolicName;
+
+  /**
+   * The number of the requirements of the {@link ComponentState#UNSATISFIED} revisions that are
+   * not wired to any capability.
+   */
+  public int unsatisfiedRequirementCount;
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+/**
+ * Customizer of the {@link ComponentContainer} tracker that indexes the containers by their
+ * service id, so a container can be found without iterating over all tracked containers. The
+ * customizer also keeps an immutable snapshot of all tracked containers that can be read by any
+ * number of threads without copying, unlike
+ * {@link org.osgi.util.tracker.ServiceTracker#getTracked()}. The snapshot is dropped when a
+ * container is added, modified or removed and it is rebuilt when it is read next time, so many
+ * containers can be registered at once without copying the snapshot for each of them.
+ */
+public class ComponentContainerIndex
+    implements ServiceTrackerCustomizer<ComponentContainer<?>, ComponentContainer<?>> {
+
+  private final BundleContext bundleContext;
+
+  private final Map<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> containerByReference = // CS_DISABLE_LINE_LENGTH
+      new HashMap<>();
+
+  private final ConcurrentMap<Long, ComponentContainer<?>> containerByServiceId =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The snapshot of the tracked containers or <code>null</code> if it must be rebuilt.
+   */
+  private volatile SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> containers = // CS_DISABLE_LINE_LENGTH
+      null;
+
+  public ComponentContainerIndex(final BundleContext bundleContext) {
+    this.bundleContext = bundleContext;
+  }
+
+  @Override
+  public ComponentContainer<?> addingService(
+      final ServiceReference<ComponentContainer<?>> reference) {
+    ComponentContainer<?> container = bundleContext.getService(reference);
+    if (container != null) {
+      containerByServiceId.put((Long) reference.getProperty(Constants.SERVICE_ID), container);
+      updateContainers(reference, container);
+    }
+    return container;
+  }
+
+  /**
+   * Returns the currently tracked containers in the same order as
+   * {@link org.osgi.util.tracker.ServiceTracker#getTracked()} would.
+   *
+   * @return An unmodifiable snapshot of the containers by their service references.
+   */
+  public SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> getContainers() { // CS_DISABLE_LINE_LENGTH
+    SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> result = containers;
+    if (result != null) {
+      return result;
+    }
+    synchronized (this) {
+      if (containers == null) {
+        // The entries are put one by one, so the snapshot is sorted by the current rankings
+        TreeMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> newContainers =
+            new TreeMap<>();
+        for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> entry : containerByReference // CS_DISABLE_LINE_LENGTH
+            .entrySet()) {
+          newContainers.put(entry.getKey(), entry.getValue());
+        }
+        containers = Collections.unmodifiableSortedMap(newContainers);
+      }
+      return containers;
+    }
+  }
+
+  /**
+   * Returns the container that is registered with the specified service id.
+   *
+   * @param serviceId
+   *          The service id of the container.
+   * @return The container or <code>null</code> if there is no tracked container with the service
+   *         id.
+   */
+  public ComponentContainer<?> getContainer(final long serviceId) {
+    return containerByServiceId.get(serviceId);
+  }
+
+  @Override
+  public void modifiedService(final ServiceReference<ComponentContainer<?>> reference,
+      final ComponentContainer<?> service) {
+    updateContainers(reference, service);
+  }
+
+  @Override
+  public void removedService(final ServiceReference<ComponentContainer<?>> reference,
+      final ComponentContainer<?> service) {
+    containerByServiceId.remove(reference.getProperty(Constants.SERVICE_ID));
+    updateContainers(reference, null);
+    bundleContext.ungetService(reference);
+  }
+
+  /**
+   * Adds, replaces or removes the container of a reference and drops the snapshot. The snapshot
+   * is also dropped if the service is modified, as the ranking and so the order might change.
+   */
+  private synchronized void updateContainers(
+      final ServiceReference<ComponentContainer<?>> reference,
+      final ComponentContainer<?> container) {
+
+    if (container != null) {
+      containerByReference.put(reference, container);
+    } else {
+      containerByReference.remove(reference);
+    }
+    containers = null;
+  }
+}
@@ -0,0 +1,643 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Pushes the state changes of the ECM components to the browsers as Server-Sent Events. If the
+ * servlet container supports asynchronous requests, the connections are kept open. Otherwise every
+ * request waits until the next change or a timeout and the browser reconnects after the response
+ * is completed (long polling).
+ *
+ * <p>
+ * The id of every event is built from the start time of the stream and the generation of the ECM
+ * state. The last events are buffered, so reconnecting clients get the changes they missed. If the
+ * missed changes are not available anymore, a <code>reset</code> event is sent and the client
+ * should reload its whole model.
+ *
+ * <p>
+ * The events are only queued for the subscribers while the monitor of the stream is held. The
+ * queues of the kept open connections are written by a pool of sender threads and the queues of
+ * the long polling requests are written by the request threads, so a slow client does not block
+ * the state tracker or the other clients. A sender thread writes a limited number of texts of a
+ * subscriber before it continues with the other subscribers. A subscriber whose queue overflows or
+ * whose write does not finish in time is disconnected and its browser reconnects with the id of
+ * the last received event.
+ */
+public class ComponentEventStream implements ComponentStateChangeListener {
+
+  /**
+   * The data of a <code>change</code> event.
+   */
+  private static class ChangeEventDTO {
+
+    public List<ComponentStateChangeDTO> changes;
+
+    public long generation;
+  }
+
+  /**
+   * An already formatted event that can be replayed to reconnecting clients.
+   */
+  private static class Message {
+
+    final long generation;
+
+    final String text;
+
+    Message(final long generation, final String text) {
+      this.generation = generation;
+      this.text = text;
+    }
+  }
+
+  /**
+   * A connected client. The fields are guarded by the monitor of the stream, except the writer
+   * that is used only by the thread that drains the queue.
+   */
+  private static class Subscriber {
+
+    final AsyncContext asyncContext;
+
+    /**
+     * Whether the connection is completed or abandoned, so nothing must be written anymore.
+     */
+    boolean closed = false;
+
+    /**
+     * Whether a thread is writing the queued texts to the client.
+     */
+    boolean draining = false;
+
+    /**
+     * Whether the thread that writes the queue was interrupted because the write stalled.
+     */
+    boolean interrupted = false;
+
+    long lastGeneration;
+
+    final Deque<String> queue = new ArrayDeque<>();
+
+    int sentMessageCount = 0;
+
+    /**
+     * The time when the current write started.
+     */
+    long writeStartTime;
+
+    final PrintWriter writer;
+
+    /**
+     * The thread that is currently writing to the client or <code>null</code>.
+     */
+    Thread writingThread;
+
+    Subscriber(final AsyncContext asyncContext, final PrintWriter writer,
+        final long lastGeneration) {
+      this.asyncContext = asyncContext;
+      this.writer = writer;
+      this.lastGeneration = lastGeneration;
+    }
+  }
+
+  private static final long ASYNC_TIMEOUT_IN_MS = 300000;
+
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  private static final long HEARTBEAT_PERIOD_IN_MS = 20000;
+
+  private static final long LONG_POLL_TIMEOUT_IN_MS = 25000;
+
+  /**
+   * The maximum number of texts that a sender thread writes to a subscriber before it lets the
+   * other subscribers go.
+   */
+  private static final int MAX_TEXTS_PER_DRAIN = 20;
+
+  private static final int MAX_BUFFERED_MESSAGES = 100;
+
+  /**
+   * The maximum number of texts that can wait for a slow client. A full replay of the buffered
+   * messages always fits.
+   */
+  private static final int MAX_QUEUED_TEXTS = MAX_BUFFERED_MESSAGES * 2;
+
+  /**
+   * The time after a write to a client is considered stalled and the writing thread is
+   * interrupted, so the subscriber cannot pin a sender thread without bound.
+   */
+  private static final long MAX_WRITE_TIME_IN_MS = 10000;
+
+  private static final long RETRY_IN_MS = 1000;
+
+  private static final int SENDER_THREAD_COUNT = 4;
+
+  private static final long STALLED_WRITE_CHECK_PERIOD_IN_MS = 2000;
+
+  /**
+   * Generation of the events that were not sent by this stream. Such clients always get a
+   * <code>reset</code> event.
+   */
+  private static final long UNKNOWN_GENERATION = -1;
+
+  private static ThreadFactory createThreadFactory(final String threadName) {
+    return new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        Thread thread = new Thread(r, threadName);
+        thread.setDaemon(true);
+        return thread;
+      }
+    };
+  }
+
+  private boolean closed = false;
+
+  private final String epoch = Long.toHexString(System.currentTimeMillis());
+
+  private ScheduledExecutorService heartbeatExecutor;
+
+  /**
+   * Whether this stream is registered as a listener of the state tracker. The registration is done
+   * when the first client subscribes, so no events are formatted and buffered if nobody opens the
+   * webconsole pages.
+   */
+  private boolean listening = false;
+
+  private final Deque<Message> messages = new ArrayDeque<>();
+
+  private ExecutorService senderExecutor;
+
+  private final ECMStateTracker stateTracker;
+
+  private final List<Subscriber> subscribers = new ArrayList<>();
+
+  /**
+   * The subscribers that are currently written by a sender or request thread.
+   */
+  private final List<Subscriber> writingSubscribers = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param stateTracker
+   *          The tracker that provides the current generation of the ECM state.
+   */
+  public ComponentEventStream(final ECMStateTracker stateTracker) {
+    this.stateTracker = stateTracker;
+  }
+
+  /**
+   * Stops sending heartbeats and completes all open connections.
+   */
+  public void close() {
+    List<Subscriber> closedSubscribers;
+    synchronized (this) {
+      closed = true;
+      if (listening) {
+        stateTracker.removeListener(this);
+      }
+      closedSubscribers = new ArrayList<>(subscribers);
+      for (Subscriber subscriber : closedSubscribers) {
+        unsubscribe(subscriber);
+      }
+      notifyAll();
+    }
+    heartbeatExecutor.shutdownNow();
+    senderExecutor.shutdownNow();
+    complete(closedSubscribers);
+  }
+
+  private void complete(final List<Subscriber> removedSubscribers) {
+    for (Subscriber subscriber : removedSubscribers) {
+      if (subscriber.asyncContext != null) {
+        try {
+          subscriber.asyncContext.complete();
+        } catch (IllegalStateException e) {
+          // Already completed by the container
+          continue;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void componentStatesChanged(final long generation,
+      final List<ComponentStateChangeDTO> changes) {
+
+    ChangeEventDTO data = new ChangeEventDTO();
+    data.generation = generation;
+    data.changes = changes;
+
+    Message message = new Message(generation,
+        formatEvent(generation, "change", GSON.toJson(data)));
+
+    List<Subscriber> drainedSubscribers = new ArrayList<>();
+    List<Subscriber> overflownSubscribers = new ArrayList<>();
+    synchronized (this) {
+      messages.addLast(message);
+      if (messages.size() > MAX_BUFFERED_MESSAGES) {
+        messages.removeFirst();
+      }
+
+      for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+        if (message.generation > subscriber.lastGeneration) {
+          subscriber.lastGeneration = message.generation;
+          subscriber.sentMessageCount++;
+          enqueue(subscriber, message.text, drainedSubscribers, overflownSubscribers);
+        }
+      }
+      notifyAll();
+    }
+    send(drainedSubscribers);
+    complete(overflownSubscribers);
+  }
+
+  /**
+   * Writes the queued texts of a subscriber until the queue becomes empty or the subscriber is
+   * closed. Only one thread drains the queue of a subscriber at a time. The queue of a kept open
+   * connection is handed over to another sender task after {@link #MAX_TEXTS_PER_DRAIN} texts, so
+   * the other subscribers are not starved.
+   */
+  private void drain(final Subscriber subscriber) {
+    int writtenTextCount = 0;
+    while (true) {
+      String text;
+      synchronized (this) {
+        if (subscriber.closed || subscriber.queue.isEmpty()) {
+          subscriber.queue.clear();
+          subscriber.draining = false;
+          return;
+        }
+        if ((writtenTextCount >= MAX_TEXTS_PER_DRAIN) && (subscriber.asyncContext != null)) {
+          text = null;
+        } else {
+          text = subscriber.queue.pollFirst();
+          subscriber.writingThread = Thread.currentThread();
+          subscriber.writeStartTime = System.currentTimeMillis();
+          writingSubscribers.add(subscriber);
+        }
+      }
+      if (text == null) {
+        send(Collections.singletonList(subscriber));
+        return;
+      }
+
+      boolean failed;
+      try {
+        subscriber.writer.write(text);
+        subscriber.writer.flush();
+        failed = subscriber.writer.checkError();
+      } finally {
+        finishWrite(subscriber);
+      }
+      if (failed) {
+        synchronized (this) {
+          unsubscribe(subscriber);
+          subscriber.draining = false;
+        }
+        complete(Collections.singletonList(subscriber));
+        return;
+      }
+      writtenTextCount++;
+    }
+  }
+
+  /**
+   * Queues a text for a subscriber. Must be called while the monitor of the stream is held.
+   *
+   * @param drainedSubscribers
+   *          The kept open connections that must be drained by a sender thread are added to this
+   *          list.
+   * @param overflownSubscribers
+   *          The subscribers that are removed because their queue is full are added to this list.
+   */
+  private void enqueue(final Subscriber subscriber, final String text,
+      final List<Subscriber> drainedSubscribers, final List<Subscriber> overflownSubscribers) {
+
+    if (subscriber.queue.size() >= MAX_QUEUED_TEXTS) {
+      unsubscribe(subscriber);
+      overflownSubscribers.add(subscriber);
+      return;
+    }
+    subscriber.queue.addLast(text);
+    if ((subscriber.asyncContext != null) && !subscriber.draining) {
+      subscriber.draining = true;
+      drainedSubscribers.add(subscriber);
+    }
+  }
+
+  /**
+   * Clears the write of the current thread and the interrupt that was caused by a stalled write,
+   * so the interrupt does not leak to the next task of the thread.
+   */
+  private synchronized void finishWrite(final Subscriber subscriber) {
+    writingSubscribers.remove(subscriber);
+    subscriber.writingThread = null;
+    if (subscriber.interrupted) {
+      subscriber.interrupted = false;
+      Thread.interrupted();
+    }
+  }
+
+  private String formatEvent(final long generation, final String eventName,
+      final String data) {
+    return "id: " + epoch + '-' + generation + "\nevent: " + eventName + "\ndata: " + data
+        + "\n\n";
+  }
+
+  /**
+   * Answers a request of a client that subscribes to the events.
+   *
+   * @param req
+   *          The HTTP request.
+   * @param resp
+   *          The HTTP response.
+   * @throws IOException
+   *           if the response cannot be written.
+   */
+  public void handle(final HttpServletRequest req, final HttpServletResponse resp)
+      throws IOException {
+
+    resp.setContentType("text/event-stream");
+    resp.setCharacterEncoding("UTF-8");
+    resp.setHeader("Cache-Control", "no-cache");
+
+    startListening();
+    long currentGeneration = stateTracker.getGeneration();
+    Long lastGeneration = resolveLastGeneration(req);
+
+    PrintWriter writer = resp.getWriter();
+    AsyncContext asyncContext = null;
+    if (isAsyncSupported(req)) {
+      asyncContext = req.startAsync();
+      asyncContext.setTimeout(ASYNC_TIMEOUT_IN_MS);
+    }
+
+    final Subscriber subscriber;
+    synchronized (this) {
+      if (closed) {
+        resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        if (asyncContext != null) {
+          asyncContext.complete();
+        }
+        return;
+      }
+
+      // The first texts are queued together with the subscription, so no change is missed
+      if (lastGeneration == null) {
+        subscriber = new Subscriber(asyncContext, writer, currentGeneration);
+        subscriber.queue.addLast(
+            formatEvent(currentGeneration, "init", String.valueOf(currentGeneration)));
+      } else if (isReplayable(lastGeneration, currentGeneration)) {
+        subscriber = new Subscriber(asyncContext, writer, lastGeneration);
+        for (Message message : messages) {
+          if (message.generation > subscriber.lastGeneration) {
+            subscriber.queue.addLast(message.text);
+            subscriber.lastGeneration = message.generation;
+            subscriber.sentMessageCount++;
+          }
+        }
+      } else {
+        subscriber = new Subscriber(asyncContext, writer, currentGeneration);
+        subscriber.queue.addLast(
+            formatEvent(currentGeneration, "reset", String.valueOf(currentGeneration)));
+        subscriber.sentMessageCount++;
+      }
+      subscriber.queue.addFirst("retry: " + RETRY_IN_MS + "\n\n");
+      subscriber.draining = true;
+      subscribers.add(subscriber);
+    }
+
+    if (asyncContext != null) {
+      asyncContext.addListener(new AsyncListener() {
+
+        @Override
+        public void onComplete(final AsyncEvent event) {
+          unsubscribe(subscriber);
+        }
+
+        @Override
+        public void onError(final AsyncEvent event) {
+          unsubscribe(subscriber);
+          complete(Collections.singletonList(subscriber));
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+          unsubscribe(subscriber);
+          complete(Collections.singletonList(subscriber));
+        }
+      });
+      drain(subscriber);
+    } else {
+      drain(subscriber);
+      waitForMessage(subscriber);
+      drain(subscriber);
+    }
+  }
+
+  /**
+   * Interrupts the threads whose write to a client takes too long and closes the subscriber, so
+   * the thread can continue with the other subscribers.
+   */
+  private void interruptStalledWrites() {
+    List<Subscriber> stalledSubscribers = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (Subscriber subscriber : writingSubscribers) {
+        if (!subscriber.interrupted
+            && (now - subscriber.writeStartTime > MAX_WRITE_TIME_IN_MS)) {
+          subscriber.interrupted = true;
+          subscriber.writingThread.interrupt();
+          unsubscribe(subscriber);
+          stalledSubscribers.add(subscriber);
+        }
+      }
+    }
+    complete(stalledSubscribers);
+  }
+
+  private boolean isAsyncSupported(final HttpServletRequest req) {
+    try {
+      return req.isAsyncSupported();
+    } catch (NoSuchMethodError e) {
+      // Servlet API older than 3.0
+      return false;
+    } catch (AbstractMethodError e) {
+      // Request wrapper that was compiled against an older Servlet API
+      return false;
+    }
+  }
+
+  private boolean isReplayable(final long lastGeneration, final long currentGeneration) {
+    if (lastGeneration >= currentGeneration) {
+      return lastGeneration == currentGeneration;
+    }
+    return !messages.isEmpty() && (messages.getFirst().generation <= lastGeneration + 1);
+  }
+
+  /**
+   * Starts the sender threads and sending heartbeat comments periodically, so proxies and the
+   * browsers do not close the idle connections. The same thread interrupts the stalled writes.
+   */
+  public void open() {
+    senderExecutor = Executors.newFixedThreadPool(SENDER_THREAD_COUNT,
+        createThreadFactory("ECM Webconsole Event Stream Sender"));
+    heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(
+        createThreadFactory("ECM Webconsole Event Stream Heartbeat"));
+    heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        sendHeartbeat();
+      }
+    }, HEARTBEAT_PERIOD_IN_MS, HEARTBEAT_PERIOD_IN_MS, TimeUnit.MILLISECONDS);
+    heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+
+      @Override
+      public void run() {
+        interruptStalledWrites();
+      }
+    }, STALLED_WRITE_CHECK_PERIOD_IN_MS, STALLED_WRITE_CHECK_PERIOD_IN_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Resolves the generation that the client has already seen from the <code>Last-Event-ID</code>
+   * header or the <code>since</code> request parameter.
+   *
+   * @return The generation, <code>null</code> if the client did not see any events or
+   *         {@link #UNKNOWN_GENERATION} if the events were sent before the last restart of the
+   *         bundle.
+   */
+  private Long resolveLastGeneration(final HttpServletRequest req) {
+    String lastEventId = req.getHeader("Last-Event-ID");
+    if (lastEventId == null) {
+      lastEventId = req.getParameter("since");
+    }
+    if (lastEventId == null) {
+      return null;
+    }
+
+    int separatorIndex = lastEventId.indexOf('-');
+    if ((separatorIndex < 0) || !epoch.equals(lastEventId.substring(0, separatorIndex))) {
+      return UNKNOWN_GENERATION;
+    }
+    String generation = lastEventId.substring(separatorIndex + 1);
+    if (!generation.matches("\\d{1,18}")) {
+      return UNKNOWN_GENERATION;
+    }
+    return Long.valueOf(generation);
+  }
+
+  /**
+   * Drains the queues of the subscribers on the sender threads.
+   */
+  private void send(final List<Subscriber> drainedSubscribers) {
+    for (final Subscriber subscriber : drainedSubscribers) {
+      try {
+        senderExecutor.execute(new Runnable() {
+
+          @Override
+          public void run() {
+            drain(subscriber);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // The stream is closed and the subscribers are completed
+        return;
+      }
+    }
+  }
+
+  private void sendHeartbeat() {
+    List<Subscriber> drainedSubscribers = new ArrayList<>();
+    List<Subscriber> overflownSubscribers = new ArrayList<>();
+    synchronized (this) {
+      for (Subscriber subscriber : new ArrayList<>(subscribers)) {
+        if (subscriber.asyncContext != null) {
+          enqueue(subscriber, ": heartbeat\n\n", drainedSubscribers, overflownSubscribers);
+        }
+      }
+    }
+    send(drainedSubscribers);
+    complete(overflownSubscribers);
+  }
+
+  private synchronized void startListening() {
+    if (!listening && !closed) {
+      stateTracker.addListener(this);
+      listening = true;
+    }
+  }
+
+  /**
+   * Removes a subscriber and marks it closed, so no more texts are written to it.
+   */
+  private synchronized void unsubscribe(final Subscriber subscriber) {
+    subscriber.closed = true;
+    subscribers.remove(subscriber);
+    subscriber.queue.clear();
+  }
+
+  /**
+   * Waits until a change is queued for a long polling subscriber and unsubscribes it, so the
+   * request thread can write the queued texts and complete the response.
+   */
+  private synchronized void waitForMessage(final Subscriber subscriber) {
+    long deadline = System.currentTimeMillis() + LONG_POLL_TIMEOUT_IN_MS;
+    long remaining = LONG_POLL_TIMEOUT_IN_MS;
+    try {
+      while (!closed && (subscriber.sentMessageCount == 0) && subscribers.contains(subscriber)
+          && (remaining > 0)) {
+        wait(remaining);
+        remaining = deadline - System.currentTimeMillis();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      subscribers.remove(subscriber);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * A change of a component container or component revision that is passed to the clients.
+ */
+public class ComponentStateChangeDTO {
+
+  public ComponentStateChangeType changeType;
+
+  public String componentId;
+
+  public Long containerServiceId;
+
+  /**
+   * The service PID of the revision or the component id if the revision does not have a PID. The
+   * rows of the components table are identified by this value.
+   */
+  public String ecmId;
+
+  public ComponentState previousState;
+
+  public ComponentState state;
+}
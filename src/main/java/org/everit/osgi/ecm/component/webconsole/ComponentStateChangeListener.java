@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.List;
+
+/**
+ * Listener that is notified by {@link ECMStateTracker} when the generation of the ECM state is
+ * increased.
+ */
+public interface ComponentStateChangeListener {
+
+  /**
+   * Called when the generation of the ECM state is increased. The list of changes might be empty
+   * if only the wiring of the components might have changed.
+   *
+   * @param generation
+   *          The new generation.
+   * @param changes
+   *          The detected changes of the containers and revisions.
+   */
+  void componentStatesChanged(long generation, List<ComponentStateChangeDTO> changes);
+}
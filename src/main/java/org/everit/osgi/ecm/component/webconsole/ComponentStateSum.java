@@ -25,6 +25,8 @@ public class ComponentStateSum {
 
   private int failed = 0;
 
+  private int failedPermanent = 0;
+
   private int inactive = 0;
 
   private int starting = 0;
@@ -33,6 +35,8 @@ public class ComponentStateSum {
 
   private int unsatisfied = 0;
 
+  private int updatingConfiguration = 0;
+
   public int getActive() {
     return active;
   }
@@ -41,6 +45,10 @@ public class ComponentStateSum {
     return failed;
   }
 
+  public int getFailedPermanent() {
+    return failedPermanent;
+  }
+
   public int getInactive() {
     return inactive;
   }
@@ -57,6 +65,10 @@ public class ComponentStateSum {
     return unsatisfied;
   }
 
+  public int getUpdatingConfiguration() {
+    return updatingConfiguration;
+  }
+
   public void setActive(final int active) {
     this.active = active;
   }
@@ -65,6 +77,10 @@ public class ComponentStateSum {
     this.failed = failed;
   }
 
+  public void setFailedPermanent(final int failedPermanent) {
+    this.failedPermanent = failedPermanent;
+  }
+
   public void setInactive(final int inactive) {
     this.inactive = inactive;
   }
@@ -81,4 +97,8 @@ public class ComponentStateSum {
     this.unsatisfied = unsatisfied;
   }
 
+  public void setUpdatingConfiguration(final int updatingConfiguration) {
+    this.updatingConfiguration = updatingConfiguration;
+  }
+
 }
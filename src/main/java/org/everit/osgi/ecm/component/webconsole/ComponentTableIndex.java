@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.metatype.MetaTypeProvider;
+import org.osgi.service.metatype.ObjectClassDefinition;
+
+/**
+ * Index of the rows of the components table that makes it possible to render only one page of the
+ * table. The index is rebuilt if the generation of the ECM state changes. Filtering by state and
+ * by name prefix is done by lookups, the other filters are applied only on the result of the
+ * lookups.
+ */
+public class ComponentTableIndex {
+
+  private static final Map<ComponentTableSort, Comparator<ComponentTableRow>> COMPARATORS;
+
+  private static final ECMWebConsoleUtil CONSOLE_UTIL = new ECMWebConsoleUtil();
+
+  static {
+    COMPARATORS = new EnumMap<>(ComponentTableSort.class);
+    COMPARATORS.put(ComponentTableSort.BUNDLE, new Comparator<ComponentTableRow>() {
+
+      @Override
+      public int compare(final ComponentTableRow o1, final ComponentTableRow o2) {
+        int result = compareStrings(o1.bundleSymbolicName, o2.bundleSymbolicName);
+        if (result == 0) {
+          result = Long.compare(o1.bundleId, o2.bundleId);
+        }
+        return result;
+      }
+    });
+    COMPARATORS.put(ComponentTableSort.ID, new Comparator<ComponentTableRow>() {
+
+      @Override
+      public int compare(final ComponentTableRow o1, final ComponentTableRow o2) {
+        return compareStrings(o1.ecmId, o2.ecmId);
+      }
+    });
+    COMPARATORS.put(ComponentTableSort.NAME, new Comparator<ComponentTableRow>() {
+
+      @Override
+      public int compare(final ComponentTableRow o1, final ComponentTableRow o2) {
+        return compareStrings(o1.name, o2.name);
+      }
+    });
+    COMPARATORS.put(ComponentTableSort.STATE, new Comparator<ComponentTableRow>() {
+
+      @Override
+      public int compare(final ComponentTableRow o1, final ComponentTableRow o2) {
+        String state1 = (o1.state != null) ? o1.state.name() : null;
+        String state2 = (o2.state != null) ? o2.state.name() : null;
+        return compareStrings(state1, state2);
+      }
+    });
+  }
+
+  private static void addToMultiMap(final Map<String, List<ComponentTableRow>> multiMap,
+      final String key, final ComponentTableRow row) {
+    if (key == null) {
+      return;
+    }
+    String lowerCaseKey = key.toLowerCase(Locale.ENGLISH);
+    List<ComponentTableRow> rows = multiMap.get(lowerCaseKey);
+    if (rows == null) {
+      rows = new ArrayList<>(1);
+      multiMap.put(lowerCaseKey, rows);
+    }
+    rows.add(row);
+  }
+
+  private static int compareStrings(final String s1, final String s2) {
+    if (s1 == null) {
+      return (s2 == null) ? 0 : 1;
+    }
+    if (s2 == null) {
+      return -1;
+    }
+    return s1.compareToIgnoreCase(s2);
+  }
+
+  private final ComponentContainerIndex containerIndex;
+
+  private long indexedGeneration = -1;
+
+  /**
+   * The names of the containers are read from the metatype information only once.
+   */
+  private Map<ServiceReference<ComponentContainer<?>>, String> nameByContainerReference =
+      new HashMap<>();
+
+  private List<ComponentTableRow> rows = Collections.emptyList();
+
+  private Map<ComponentState, List<ComponentTableRow>> rowsByState =
+      new EnumMap<>(ComponentState.class);
+
+  /**
+   * The rows by the lower case names, component ids and service PIDs.
+   */
+  private TreeMap<String, List<ComponentTableRow>> rowsBySearchKey = new TreeMap<>();
+
+  private final Map<ComponentTableSort, List<ComponentTableRow>> sortedRows =
+      new EnumMap<>(ComponentTableSort.class);
+
+  private final ECMStateTracker stateTracker;
+
+  /**
+   * Constructor.
+   *
+   * @param containerIndex
+   *          The index that holds the snapshot of all tracked {@link ComponentContainer}s.
+   * @param stateTracker
+   *          The tracker of the ECM state generation that decides when the index is rebuilt.
+   */
+  public ComponentTableIndex(
+      final ComponentContainerIndex containerIndex, final ECMStateTracker stateTracker) {
+    this.containerIndex = containerIndex;
+    this.stateTracker = stateTracker;
+  }
+
+  private boolean matches(final ComponentTableRow row, final ComponentTableQuery query) {
+    if ((query.getState() != null) && (row.state != query.getState())) {
+      return false;
+    }
+    String bundle = query.getBundle();
+    if (bundle != null) {
+      boolean bundleMatches = bundle.equals(String.valueOf(row.bundleId))
+          || ((row.bundleSymbolicName != null) && row.bundleSymbolicName.startsWith(bundle));
+      if (!bundleMatches) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns one page of the table.
+   *
+   * @param query
+   *          The paging, sorting and filtering parameters.
+   * @return The page.
+   */
+  public synchronized ComponentTablePage query(final ComponentTableQuery query) {
+    long generation = stateTracker.getGeneration();
+    if (generation != indexedGeneration) {
+      rebuild();
+      indexedGeneration = generation;
+    }
+
+    Collection<ComponentTableRow> candidates = resolveCandidates(query);
+    boolean sorted = false;
+    if (candidates == null) {
+      candidates = sortedRows(query.getSort());
+      sorted = true;
+    }
+
+    List<ComponentTableRow> result = new ArrayList<>();
+    for (ComponentTableRow row : candidates) {
+      if (matches(row, query)) {
+        result.add(row);
+      }
+    }
+
+    Comparator<ComponentTableRow> comparator = COMPARATORS.get(query.getSort());
+    if ((comparator != null) && !sorted) {
+      // The sort is stable, so the default order is kept within the same values
+      Collections.sort(result, comparator);
+    }
+    if (query.isDescending()) {
+      Collections.reverse(result);
+    }
+    return new ComponentTablePage(query, result);
+  }
+
+  private void rebuild() {
+    SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> tracked =
+        containerIndex.getContainers();
+
+    Map<ServiceReference<ComponentContainer<?>>, String> newNameByContainerReference =
+        new HashMap<>();
+    List<ComponentTableRow> newRows = new ArrayList<>();
+    Map<ComponentState, List<ComponentTableRow>> newRowsByState =
+        new EnumMap<>(ComponentState.class);
+    TreeMap<String, List<ComponentTableRow>> newRowsBySearchKey = new TreeMap<>();
+
+    for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> entry : tracked
+        .entrySet()) {
+      ServiceReference<ComponentContainer<?>> containerReference = entry.getKey();
+      ComponentContainer<?> container = entry.getValue();
+
+      String name = nameByContainerReference.get(containerReference);
+      if (name == null) {
+        name = resolveName(container);
+      }
+      newNameByContainerReference.put(containerReference, name);
+
+      Bundle bundle = containerReference.getBundle();
+      long bundleId = (bundle != null) ? bundle.getBundleId() : -1;
+      String bundleSymbolicName = (bundle != null) ? bundle.getSymbolicName() : null;
+      String componentId = container.getComponentMetadata().getComponentId();
+
+      ComponentRevision<?>[] revisions = container.getResources();
+      List<ComponentTableRow> containerRows = new ArrayList<>();
+      if (revisions.length == 0) {
+        containerRows.add(new ComponentTableRow(containerReference, container, null, name,
+            componentId, bundleId, bundleSymbolicName));
+      }
+      for (ComponentRevision<?> revision : revisions) {
+        containerRows.add(new ComponentTableRow(containerReference, container, revision, name,
+            CONSOLE_UTIL.getId(revision), bundleId, bundleSymbolicName));
+      }
+
+      for (ComponentTableRow row : containerRows) {
+        newRows.add(row);
+        if (row.state != null) {
+          List<ComponentTableRow> stateRows = newRowsByState.get(row.state);
+          if (stateRows == null) {
+            stateRows = new ArrayList<>();
+            newRowsByState.put(row.state, stateRows);
+          }
+          stateRows.add(row);
+        }
+        addToMultiMap(newRowsBySearchKey, name, row);
+        addToMultiMap(newRowsBySearchKey, componentId, row);
+        if (!row.ecmId.equals(componentId)) {
+          addToMultiMap(newRowsBySearchKey, row.ecmId, row);
+        }
+      }
+    }
+
+    nameByContainerReference = newNameByContainerReference;
+    rows = newRows;
+    rowsByState = newRowsByState;
+    rowsBySearchKey = newRowsBySearchKey;
+    sortedRows.clear();
+  }
+
+  /**
+   * Returns the rows that should be checked for the query. The smallest result of the index
+   * lookups is used, or <code>null</code> if no lookup is possible and all rows must be checked.
+   */
+  private Collection<ComponentTableRow> resolveCandidates(final ComponentTableQuery query) {
+    Collection<ComponentTableRow> result = null;
+
+    if (query.getState() != null) {
+      result = rowsByState.get(query.getState());
+      if (result == null) {
+        return Collections.emptyList();
+      }
+    }
+
+    String namePrefix = query.getNamePrefix();
+    if (namePrefix != null) {
+      String lowerCasePrefix = namePrefix.toLowerCase(Locale.ENGLISH);
+      Set<ComponentTableRow> prefixRows = new LinkedHashSet<>();
+      for (List<ComponentTableRow> keyRows : rowsBySearchKey
+          .subMap(lowerCasePrefix, true, lowerCasePrefix + Character.MAX_VALUE, true).values()) {
+        prefixRows.addAll(keyRows);
+      }
+      if ((result == null) || (prefixRows.size() < result.size())) {
+        if (result != null) {
+          prefixRows.retainAll(new LinkedHashSet<>(result));
+        }
+        result = prefixRows;
+      } else {
+        List<ComponentTableRow> stateAndPrefixRows = new ArrayList<>();
+        for (ComponentTableRow row : result) {
+          if (prefixRows.contains(row)) {
+            stateAndPrefixRows.add(row);
+          }
+        }
+        result = stateAndPrefixRows;
+      }
+    }
+
+    return result;
+  }
+
+  private String resolveName(final ComponentContainer<?> container) {
+    if (container instanceof MetaTypeProvider) {
+      ObjectClassDefinition objectClassDefinition =
+          ((MetaTypeProvider) container)
+              .getObjectClassDefinition(null, Locale.getDefault().toString());
+      if ((objectClassDefinition != null) && (objectClassDefinition.getName() != null)) {
+        return objectClassDefinition.getName();
+      }
+    }
+    return container.getComponentMetadata().getComponentId();
+  }
+
+  private List<ComponentTableRow> sortedRows(final ComponentTableSort sort) {
+    Comparator<ComponentTableRow> comparator = COMPARATORS.get(sort);
+    if (comparator == null) {
+      return rows;
+    }
+    List<ComponentTableRow> result = sortedRows.get(sort);
+    if (result == null) {
+      result = new ArrayList<>(rows);
+      Collections.sort(result, comparator);
+      sortedRows.put(sort, result);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * One page of the components table. The rows of the page are grouped by their containers in the
+ * order of the first row of each container.
+ */
+public class ComponentTablePage {
+
+  private final Map<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> containers =
+      new LinkedHashMap<>();
+
+  /**
+   * The number of the page starting from 1. If the requested page is after the last page, the last
+   * page is shown.
+   */
+  private final int page;
+
+  private final int pageCount;
+
+  private final ComponentTableQuery query;
+
+  private final Map<ServiceReference<ComponentContainer<?>>, List<ComponentRevision<?>>> revisions = // CS_DISABLE_LINE_LENGTH
+      new LinkedHashMap<>();
+
+  private final int totalRowCount;
+
+  ComponentTablePage(final ComponentTableQuery query, final List<ComponentTableRow> rows) {
+    this.query = query;
+    totalRowCount = rows.size();
+    int pageSize = query.getPageSize();
+    pageCount = Math.max(1, (int) ((((long) totalRowCount + pageSize) - 1) / pageSize));
+    page = Math.min(query.getPage(), pageCount);
+
+    for (int i = (page - 1) * pageSize, n = getLastRowNumber(); i < n; i++) {
+      ComponentTableRow row = rows.get(i);
+      List<ComponentRevision<?>> containerRevisions = revisions.get(row.containerReference);
+      if (containerRevisions == null) {
+        containerRevisions = new ArrayList<>();
+        revisions.put(row.containerReference, containerRevisions);
+        containers.put(row.containerReference, row.container);
+      }
+      if (row.revision != null) {
+        containerRevisions.add(row.revision);
+      }
+    }
+  }
+
+  /**
+   * The containers that have at least one row on the page.
+   *
+   * @return The containers by their service references.
+   */
+  public Map<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> getContainers() {
+    return containers;
+  }
+
+  /**
+   * Returns the number of the first row of the page.
+   *
+   * @return The number of the first row starting from 1 or 0 if the page is empty.
+   */
+  public int getFirstRowNumber() {
+    if (totalRowCount == 0) {
+      return 0;
+    }
+    return ((page - 1) * query.getPageSize()) + 1;
+  }
+
+  public int getLastRowNumber() {
+    return (int) Math.min((long) page * query.getPageSize(), totalRowCount);
+  }
+
+  public int getPage() {
+    return page;
+  }
+
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  public ComponentTableQuery getQuery() {
+    return query;
+  }
+
+  /**
+   * Returns the revisions of a container that are on the page.
+   *
+   * @param containerReference
+   *          The service reference of the container.
+   * @return The revisions.
+   */
+  public List<ComponentRevision<?>> getRevisions(
+      final ServiceReference<ComponentContainer<?>> containerReference) {
+    List<ComponentRevision<?>> result = revisions.get(containerReference);
+    if (result == null) {
+      return Collections.emptyList();
+    }
+    return result;
+  }
+
+  public int getTotalRowCount() {
+    return totalRowCount;
+  }
+}
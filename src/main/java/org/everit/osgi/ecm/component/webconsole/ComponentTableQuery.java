@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * The paging, sorting and filtering parameters of the components table. Invalid parameter values
+ * are replaced by the defaults.
+ */
+public class ComponentTableQuery {
+
+  public static final int DEFAULT_PAGE_SIZE = 100;
+
+  public static final int MAX_PAGE_SIZE = 10000;
+
+  private static int parseInt(final String value, final int defaultValue, final int min,
+      final int max) {
+    if ((value == null) || !value.matches("\\d{1,9}")) {
+      return defaultValue;
+    }
+    return Math.max(min, Math.min(max, Integer.parseInt(value)));
+  }
+
+  /**
+   * Reads the query from the parameters of a request.
+   *
+   * @param req
+   *          The HTTP request.
+   * @return The query.
+   */
+  public static ComponentTableQuery parse(final HttpServletRequest req) {
+    ComponentTableQuery result = new ComponentTableQuery();
+    result.bundle = trimToNull(req.getParameter("bundle"));
+    result.descending = "true".equals(req.getParameter("desc"));
+    result.namePrefix = trimToNull(req.getParameter("q"));
+    result.page = parseInt(req.getParameter("page"), 1, 1, Integer.MAX_VALUE);
+    result.pageSize =
+        parseInt(req.getParameter("pageSize"), DEFAULT_PAGE_SIZE, 1, MAX_PAGE_SIZE);
+
+    String sortParam = req.getParameter("sort");
+    if (sortParam != null) {
+      for (ComponentTableSort sortValue : ComponentTableSort.values()) {
+        if (sortValue.name().equalsIgnoreCase(sortParam)) {
+          result.sort = sortValue;
+        }
+      }
+    }
+
+    String stateParam = req.getParameter("state");
+    if (stateParam != null) {
+      for (ComponentState stateValue : ComponentState.values()) {
+        if (stateValue.name().equals(stateParam)) {
+          result.state = stateValue;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static String trimToNull(final String value) {
+    if (value == null) {
+      return null;
+    }
+    String trimmed = value.trim();
+    return (trimmed.isEmpty()) ? null : trimmed;
+  }
+
+  private String bundle;
+
+  private boolean descending = false;
+
+  private String namePrefix;
+
+  private int page = 1;
+
+  private int pageSize = DEFAULT_PAGE_SIZE;
+
+  private ComponentTableSort sort = ComponentTableSort.DEFAULT;
+
+  private ComponentState state;
+
+  private void appendParam(final StringBuilder sb, final String name, final Object value) {
+    if (value == null) {
+      return;
+    }
+    sb.append((sb.indexOf("?") < 0) ? '?' : '&').append(name).append('=');
+    try {
+      sb.append(URLEncoder.encode(String.valueOf(value), StandardCharsets.UTF_8.name()));
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Creates the URL of another page of the table with the same filters and sorting.
+   *
+   * @param pluginRoot
+   *          The root URL of the plugin.
+   * @param pageNumber
+   *          The number of the page starting from 1.
+   * @return The URL.
+   */
+  public String createPageURL(final String pluginRoot, final int pageNumber) {
+    StringBuilder sb = new StringBuilder(pluginRoot);
+    appendParam(sb, "q", namePrefix);
+    appendParam(sb, "state", state);
+    appendParam(sb, "bundle", bundle);
+    if (sort != ComponentTableSort.DEFAULT) {
+      appendParam(sb, "sort", sort.name().toLowerCase(Locale.ENGLISH));
+    }
+    if (descending) {
+      appendParam(sb, "desc", "true");
+    }
+    if (pageSize != DEFAULT_PAGE_SIZE) {
+      appendParam(sb, "pageSize", pageSize);
+    }
+    appendParam(sb, "page", pageNumber);
+    return sb.toString();
+  }
+
+  /**
+   * The id or the symbolic name prefix of the bundle that declares the components.
+   *
+   * @return The bundle filter or <code>null</code>.
+   */
+  public String getBundle() {
+    return bundle;
+  }
+
+  /**
+   * The prefix of the component name, component id or service PID, compared case-insensitively.
+   *
+   * @return The name prefix or <code>null</code>.
+   */
+  public String getNamePrefix() {
+    return namePrefix;
+  }
+
+  public int getPage() {
+    return page;
+  }
+
+  public int getPageSize() {
+    return pageSize;
+  }
+
+  public ComponentTableSort getSort() {
+    return sort;
+  }
+
+  public ComponentState getState() {
+    return state;
+  }
+
+  public boolean isDescending() {
+    return descending;
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * A row of the components table with the values that the rows are filtered and sorted by. A
+ * container that does not have any revisions is represented by a row without revision.
+ */
+class ComponentTableRow {
+
+  final String bundleSymbolicName;
+
+  final long bundleId;
+
+  final ComponentContainer<?> container;
+
+  final ServiceReference<ComponentContainer<?>> containerReference;
+
+  /**
+   * The service PID of the revision or the component id if there is no PID or revision.
+   */
+  final String ecmId;
+
+  final String name;
+
+  final ComponentRevision<?> revision;
+
+  final ComponentState state;
+
+  ComponentTableRow(final ServiceReference<ComponentContainer<?>> containerReference,
+      final ComponentContainer<?> container, final ComponentRevision<?> revision,
+      final String name, final String ecmId, final long bundleId,
+      final String bundleSymbolicName) {
+    this.containerReference = containerReference;
+    this.container = container;
+    this.revision = revision;
+    this.name = name;
+    this.ecmId = ecmId;
+    this.bundleId = bundleId;
+    this.bundleSymbolicName = bundleSymbolicName;
+    state = (revision != null) ? revision.getState() : null;
+  }
+}
@@ -0,0 +1,829 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.everit.osgi.ecm.component.ECMComponentConstants;
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRequirement;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.resource.Requirement;
+
+/**
+ * Maintains a generation number of the state of all ECM components. The generation is increased if
+ * a container or revision appeared or disappeared or a revision changed its state.
+ *
+ * <p>
+ * ECM does not notify about state changes, so the states are compared to the previously seen ones
+ * by a background thread. The comparison is done periodically and soon after the registration,
+ * modification or unregistration of a component container and the events of the bundles that
+ * registered containers. Only the detected changes are applied on the number of revisions by
+ * state, the component counts of the bundles and the number of unhealthy revisions, and the
+ * registered listeners are only notified if anything changed.
+ */
+public class ECMStateTracker implements AllServiceListener, BundleListener {
+
+  /**
+   * A tracked component container.
+   */
+  private static class ContainerSnapshot {
+
+    final String componentId;
+
+    final ComponentContainer<?> container;
+
+    final Long containerServiceId;
+
+    /**
+     * The counts of the bundle that registered the container.
+     */
+    final BundleComponentCountsDTO counts;
+
+    /**
+     * Increased by every check that sees a changed set of tracked containers, as the service
+     * properties of the container might have been modified.
+     */
+    int modificationCount = 0;
+
+    final ServiceReference<ComponentContainer<?>> serviceReference;
+
+    ContainerSnapshot(final ServiceReference<ComponentContainer<?>> serviceReference,
+        final ComponentContainer<?> container, final BundleComponentCountsDTO counts) {
+      this.serviceReference = serviceReference;
+      this.container = container;
+      this.counts = counts;
+      containerServiceId = (Long) serviceReference.getProperty(Constants.SERVICE_ID);
+      componentId =
+          (String) serviceReference.getProperty(ECMComponentConstants.SERVICE_PROP_COMPONENT_ID);
+    }
+  }
+
+  /**
+   * The state of a revision when the generation was calculated last time.
+   */
+  private static class RevisionSnapshot {
+
+    /**
+     * The number of the check that saw the revision last time. Revisions that were not seen by the
+     * current check are removed.
+     */
+    long checkCount;
+
+    final ContainerSnapshot containerSnapshot;
+
+    final String ecmId;
+
+    /**
+     * Whether the revision matches the health filter. Evaluated again if the properties of the
+     * revision are replaced or the container might have been modified.
+     */
+    boolean healthChecked;
+
+    /**
+     * The modification count of the container when the health filter was evaluated.
+     */
+    int healthCheckedModificationCount;
+
+    /**
+     * The properties of the revision that the health filter was evaluated on.
+     */
+    Map<String, Object> healthCheckedProperties;
+
+    final String servicePid;
+
+    ComponentState state;
+
+    int unsatisfiedRequirementCount;
+
+    RevisionSnapshot(final ContainerSnapshot containerSnapshot, final String ecmId,
+        final String servicePid) {
+      this.containerSnapshot = containerSnapshot;
+      this.ecmId = ecmId;
+      this.servicePid = servicePid;
+    }
+  }
+
+  /**
+   * Name of the framework property that holds an LDAP filter. Only the revisions that match the
+   * filter are counted as unhealthy if they are not active. The filter is matched against the
+   * service properties of the container and the properties of the revision. If the property is
+   * not set, all revisions are checked.
+   */
+  public static final String HEALTH_FILTER_PROPERTY =
+      "org.everit.osgi.ecm.component.webconsole.health.filter";
+
+  /**
+   * Name of the framework property that overrides the period of the background check in
+   * milliseconds. The period bounds the delay of noticing the changes of the revisions that are
+   * not signalled by service or bundle events. Zero disables the periodic check, so only the
+   * events trigger a check.
+   */
+  public static final String CHECK_PERIOD_PROPERTY =
+      "org.everit.osgi.ecm.component.webconsole.state.checkPeriod";
+
+  /**
+   * The default period of the background check in milliseconds.
+   */
+  public static final long DEFAULT_CHECK_PERIOD_IN_MS = 1000;
+
+  private static final Logger LOGGER = Logger.getLogger(ECMStateTracker.class.getName());
+
+  private static final ECMWebConsoleUtil CONSOLE_UTIL = new ECMWebConsoleUtil();
+
+  private static final long UNKNOWN_BUNDLE_ID = -1;
+
+  /**
+   * The published copy of the component counts of the bundles by bundle id, so the counts can be
+   * read without iterating over the containers.
+   */
+  private volatile Map<Long, BundleComponentCountsDTO> bundleComponentCounts =
+      Collections.emptyMap();
+
+  private final BundleContext bundleContext;
+
+  /**
+   * The number of checks, used to find the revisions that disappeared.
+   */
+  private long checkCount = 0;
+
+  /**
+   * The snapshot of the container index that was checked last time. The index creates a new
+   * snapshot if a container is added, modified or removed, so the containers are only compared if
+   * the snapshot changed.
+   */
+  private SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> checkedContainers = // CS_DISABLE_LINE_LENGTH
+      null;
+
+  private final long checkPeriodInMs;
+
+  private final AtomicBoolean checkScheduled = new AtomicBoolean(false);
+
+  private final Runnable checkTask = new Runnable() {
+
+    @Override
+    public void run() {
+      checkScheduled.set(false);
+      checkGeneration();
+    }
+  };
+
+  private final ComponentContainerIndex containerIndex;
+
+  private Map<ServiceReference<ComponentContainer<?>>, ContainerSnapshot> containerSnapshots =
+      new HashMap<>();
+
+  /**
+   * The counts of the bundles by bundle id that are updated by the checks.
+   */
+  private final Map<Long, BundleComponentCountsDTO> countsByBundleId = new TreeMap<>();
+
+  /**
+   * Differs on every start of the bundle, so clients cannot mix up generations of different runs.
+   */
+  private final long epoch = System.currentTimeMillis();
+
+  private ScheduledExecutorService executor;
+
+  private volatile long generation = 0;
+
+  /**
+   * The filter of the revisions that are checked by the health endpoint or <code>null</code> if
+   * all revisions are checked.
+   */
+  private final Filter healthFilter;
+
+  /**
+   * The value of the {@link #HEALTH_FILTER_PROPERTY} framework property if it is not a valid
+   * filter, otherwise <code>null</code>.
+   */
+  private final String invalidHealthFilter;
+
+  private final List<ComponentStateChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * The number of revisions by state. Updated by the state transitions that are detected when the
+   * generation is calculated, so the counts can be read without iterating over the revisions.
+   */
+  private final Map<ComponentState, AtomicLong> revisionCountByState =
+      new EnumMap<>(ComponentState.class);
+
+  /**
+   * The revisions that have a service PID, rebuilt when a revision appears or disappears.
+   */
+  private volatile Map<String, ComponentRevision<?>> revisionByServicePid =
+      Collections.emptyMap();
+
+  private final Map<ComponentRevision<?>, RevisionSnapshot> snapshotByRevision =
+      new IdentityHashMap<>();
+
+  /**
+   * The number of revisions that match the health filter and are not active, updated by the state
+   * transitions that are detected when the generation is calculated.
+   */
+  private volatile int unhealthyRevisionCount = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param bundleContext
+   *          The context of the bundle that contains this webconsole plugin.
+   * @param containerIndex
+   *          The index that holds the snapshot of all tracked {@link ComponentContainer}s.
+   */
+  public ECMStateTracker(final BundleContext bundleContext,
+      final ComponentContainerIndex containerIndex) {
+    this.bundleContext = bundleContext;
+    this.containerIndex = containerIndex;
+    this.checkPeriodInMs = resolveCheckPeriod(bundleContext);
+    String healthFilterString = bundleContext.getProperty(HEALTH_FILTER_PROPERTY);
+    if ((healthFilterString == null) || healthFilterString.trim().isEmpty()) {
+      healthFilter = null;
+      invalidHealthFilter = null;
+    } else {
+      healthFilter = createHealthFilter(bundleContext, healthFilterString.trim());
+      invalidHealthFilter = (healthFilter == null) ? healthFilterString : null;
+    }
+    for (ComponentState state : ComponentState.values()) {
+      revisionCountByState.put(state, new AtomicLong());
+    }
+  }
+
+  /**
+   * Registers a listener that is notified in the order of the generations from a background
+   * thread.
+   *
+   * @param listener
+   *          The listener.
+   */
+  public void addListener(final ComponentStateChangeListener listener) {
+    listeners.add(listener);
+  }
+
+  private RevisionSnapshot addRevision(final ContainerSnapshot containerSnapshot,
+      final ComponentRevision<?> revision, final ComponentState state,
+      final List<ComponentStateChangeDTO> changes) {
+
+    Object servicePidProp = revision.getProperties().get(Constants.SERVICE_PID);
+    RevisionSnapshot snapshot = new RevisionSnapshot(containerSnapshot,
+        CONSOLE_UTIL.getId(revision),
+        (servicePidProp instanceof String) ? (String) servicePidProp : null);
+    snapshotByRevision.put(revision, snapshot);
+    applyState(snapshot, revision, state, 1);
+    changes.add(createChange(ComponentStateChangeType.REVISION_ADDED, containerSnapshot,
+        snapshot.ecmId, null, state));
+    return snapshot;
+  }
+
+  /**
+   * Adds the state of a revision to the counts or removes it from them.
+   *
+   * @param sign
+   *          <code>1</code> if the state is added and <code>-1</code> if it is removed.
+   */
+  private void applyState(final RevisionSnapshot snapshot, final ComponentRevision<?> revision,
+      final ComponentState state, final int sign) {
+
+    BundleComponentCountsDTO counts = snapshot.containerSnapshot.counts;
+    if (sign > 0) {
+      snapshot.state = state;
+      snapshot.healthChecked = matchesHealthFilter(snapshot, revision);
+      snapshot.unsatisfiedRequirementCount = (state == ComponentState.UNSATISFIED)
+          ? countUnsatisfiedRequirements(snapshot.containerSnapshot.container, revision)
+          : 0;
+    }
+
+    revisionCountByState.get(state).addAndGet(sign);
+    counts.revisionCountByState[state.ordinal()] += sign;
+    counts.unsatisfiedRequirementCount += sign * snapshot.unsatisfiedRequirementCount;
+    if (snapshot.healthChecked && (state != ComponentState.ACTIVE)) {
+      unhealthyRevisionCount += sign;
+    }
+  }
+
+  @Override
+  public void bundleChanged(final BundleEvent event) {
+    // Only the bundles that registered containers are interesting
+    if (bundleComponentCounts.containsKey(event.getBundle().getBundleId())) {
+      scheduleCheck();
+    }
+  }
+
+  /**
+   * Checks the states of all revisions and returns the current generation of the ECM state. The
+   * states are compared to the ones that were seen at the last check and only the differences are
+   * applied. The generation is increased only if a container or revision appeared or disappeared or
+   * a revision changed its state. The check walks all revisions, so it is done by the background
+   * thread and request threads should call {@link #getGeneration()} instead.
+   *
+   * @return The current generation.
+   */
+  public synchronized long checkGeneration() {
+    checkCount++;
+    List<ComponentStateChangeDTO> changes = new ArrayList<>();
+
+    SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> tracked =
+        containerIndex.getContainers();
+    List<ComponentStateChangeDTO> containerRemovals = Collections.emptyList();
+    if (tracked != checkedContainers) {
+      containerRemovals = updateContainers(tracked, changes);
+      checkedContainers = tracked;
+    }
+
+    int revisionCount = 0;
+    boolean revisionSetChanged = false;
+    boolean requirementCountChanged = false;
+    for (ContainerSnapshot containerSnapshot : containerSnapshots.values()) {
+      for (ComponentRevision<?> revision : containerSnapshot.container.getResources()) {
+        revisionCount++;
+        ComponentState state = revision.getState();
+        RevisionSnapshot snapshot = snapshotByRevision.get(revision);
+        if (snapshot == null) {
+          snapshot = addRevision(containerSnapshot, revision, state, changes);
+          revisionSetChanged = true;
+        } else if (snapshot.state != state) {
+          ComponentState previousState = snapshot.state;
+          applyState(snapshot, revision, previousState, -1);
+          applyState(snapshot, revision, state, 1);
+          changes.add(createChange(ComponentStateChangeType.STATE_CHANGED,
+              containerSnapshot, snapshot.ecmId, previousState, state));
+        } else {
+          if (state == ComponentState.UNSATISFIED) {
+            // Some requirements of an unsatisfied revision might be wired without a state change
+            requirementCountChanged |= recountUnsatisfiedRequirements(snapshot, revision);
+          }
+          if ((healthFilter != null)
+              && ((revision.getProperties() != snapshot.healthCheckedProperties)
+                  || (containerSnapshot.modificationCount
+                      != snapshot.healthCheckedModificationCount))) {
+            updateHealthChecked(snapshot, revision);
+          }
+        }
+        snapshot.checkCount = checkCount;
+      }
+    }
+
+    // The seen revisions are all in the map, so it is larger only if some revisions disappeared
+    if (snapshotByRevision.size() > revisionCount) {
+      removeUnseenRevisions(changes);
+      revisionSetChanged = true;
+    }
+    changes.addAll(containerRemovals);
+
+    if (changes.isEmpty()) {
+      if (requirementCountChanged) {
+        publishBundleComponentCounts();
+      }
+      return generation;
+    }
+
+    publishBundleComponentCounts();
+    if (revisionSetChanged) {
+      indexRevisionsByServicePid();
+    }
+    generation++;
+    notifyListeners(generation, changes);
+    return generation;
+  }
+
+  /**
+   * Stops listening to the events of the framework.
+   */
+  public void close() {
+    bundleContext.removeServiceListener(this);
+    bundleContext.removeBundleListener(this);
+    executor.shutdownNow();
+  }
+
+  private int countUnsatisfiedRequirements(final ComponentContainer<?> container,
+      final ComponentRevision<?> revision) {
+    int result = 0;
+    for (Requirement requirement : revision.getRequirements(null)) {
+      if ((requirement instanceof ComponentRequirement)
+          && (container.getWiresByRequirement((ComponentRequirement<?, ?>) requirement)
+              .length == 0)) {
+        result++;
+      }
+    }
+    return result;
+  }
+
+  private ComponentStateChangeDTO createChange(final ComponentStateChangeType changeType,
+      final ContainerSnapshot containerSnapshot, final String ecmId,
+      final ComponentState previousState, final ComponentState state) {
+    ComponentStateChangeDTO change = new ComponentStateChangeDTO();
+    change.changeType = changeType;
+    change.containerServiceId = containerSnapshot.containerServiceId;
+    change.componentId = containerSnapshot.componentId;
+    change.ecmId = ecmId;
+    change.previousState = previousState;
+    change.state = state;
+    return change;
+  }
+
+  /**
+   * Creates the health filter. An invalid filter does not prevent the start of the bundle, all
+   * revisions are checked instead and the health check reports the invalid filter.
+   */
+  private Filter createHealthFilter(final BundleContext bundleContext,
+      final String filterString) {
+    try {
+      return bundleContext.createFilter(filterString);
+    } catch (InvalidSyntaxException e) {
+      LOGGER.log(Level.WARNING, "Invalid " + HEALTH_FILTER_PROPERTY + ", all component revisions"
+          + " are checked: " + filterString, e);
+      return null;
+    }
+  }
+
+  /**
+   * Returns the number of component containers, revisions and unsatisfied requirements of the
+   * bundles that registered component containers. The counts are updated by the background check
+   * when the generation is increased, so they can be read cheaply. The unsatisfied requirements
+   * are counted again by every check while the revision is unsatisfied, so the wiring changes of
+   * the unsatisfied revisions are also applied on the counts.
+   *
+   * @return The counts in the order of the bundle ids.
+   */
+  public Collection<BundleComponentCountsDTO> getBundleComponentCounts() {
+    return bundleComponentCounts.values();
+  }
+
+  /**
+   * Returns the number of component revisions by state. The counts are maintained incrementally,
+   * so they might be behind the real states by the period of the background check.
+   *
+   * @return The sum of the component states.
+   */
+  public ComponentStateSum getComponentStateSum() {
+    ComponentStateSum result = new ComponentStateSum();
+    result.setActive(getRevisionCount(ComponentState.ACTIVE));
+    result.setFailed(getRevisionCount(ComponentState.FAILED));
+    result.setFailedPermanent(getRevisionCount(ComponentState.FAILED_PERMANENT));
+    result.setInactive(getRevisionCount(ComponentState.INACTIVE));
+    result.setStarting(getRevisionCount(ComponentState.STARTING));
+    result.setStopping(getRevisionCount(ComponentState.STOPPING));
+    result.setUnsatisfied(getRevisionCount(ComponentState.UNSATISFIED));
+    result.setUpdatingConfiguration(getRevisionCount(ComponentState.UPDATING_CONFIGURATION));
+    return result;
+  }
+
+  /**
+   * Returns the generation that was calculated by the last check without walking the revisions.
+   * Changes are seen after the check that is scheduled by the service events or by the periodic
+   * check.
+   *
+   * @return The generation of the last check.
+   */
+  public long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Returns an entity tag that identifies the current generation of the ECM state.
+   *
+   * @return The entity tag in quoted form.
+   */
+  public String getETag() {
+    return "\"" + Long.toHexString(epoch) + '-' + Long.toHexString(getGeneration()) + "\"";
+  }
+
+  /**
+   * Returns an entity tag that identifies the details of a revision. The tag contains a digest of
+   * the data that the details are rendered from, so it changes if the configuration or the wiring
+   * of the revision changes without a change of its state, and it does not change if other
+   * revisions change.
+   *
+   * @param revision
+   *          The revision.
+   * @return The entity tag in quoted form.
+   */
+  public String getETag(final ComponentRevision<?> revision) {
+    return "\"" + Long.toHexString(epoch) + '-'
+        + Long.toHexString(RevisionDigest.calculate(revision)) + "\"";
+  }
+
+  /**
+   * Returns the value of the {@link #HEALTH_FILTER_PROPERTY} framework property if it is not a
+   * valid filter. In that case all revisions are checked.
+   *
+   * @return The invalid filter or <code>null</code> if the property is not set or valid.
+   */
+  public String getInvalidHealthFilter() {
+    return invalidHealthFilter;
+  }
+
+  /**
+   * Returns the revision that has the specified service PID. The index is updated by the
+   * background check, so a revision that appeared in the last moment might not be found and a
+   * revision that has just disappeared might be returned.
+   *
+   * @param servicePid
+   *          The service PID of the revision.
+   * @return The revision or <code>null</code> if no revision with the service PID is known.
+   */
+  public ComponentRevision<?> getRevisionByServicePid(final String servicePid) {
+    return revisionByServicePid.get(servicePid);
+  }
+
+  private int getRevisionCount(final ComponentState state) {
+    return (int) revisionCountByState.get(state).get();
+  }
+
+  /**
+   * Returns the number of revisions that match the {@link #HEALTH_FILTER_PROPERTY} filter and are
+   * not active. The number is updated by the background check when the generation is increased,
+   * so it is read without iterating over the revisions.
+   *
+   * @return The number of unhealthy revisions.
+   */
+  public int getUnhealthyRevisionCount() {
+    return unhealthyRevisionCount;
+  }
+
+  private void indexRevisionsByServicePid() {
+    Map<String, ComponentRevision<?>> newRevisionByServicePid = new HashMap<>();
+    for (Entry<ComponentRevision<?>, RevisionSnapshot> entry : snapshotByRevision.entrySet()) {
+      String servicePid = entry.getValue().servicePid;
+      if (servicePid != null) {
+        newRevisionByServicePid.put(servicePid, entry.getKey());
+      }
+    }
+    revisionByServicePid = newRevisionByServicePid;
+  }
+
+  /**
+   * Evaluates the health filter and remembers the properties and the modification count of the
+   * container that it was evaluated on.
+   */
+  private boolean matchesHealthFilter(final RevisionSnapshot snapshot,
+      final ComponentRevision<?> revision) {
+    ContainerSnapshot containerSnapshot = snapshot.containerSnapshot;
+    Map<String, Object> properties = revision.getProperties();
+    snapshot.healthCheckedProperties = properties;
+    snapshot.healthCheckedModificationCount = containerSnapshot.modificationCount;
+    if (healthFilter == null) {
+      return true;
+    }
+    return healthFilter.match(containerSnapshot.serviceReference)
+        || healthFilter.matches(properties);
+  }
+
+  private void notifyListeners(final long notifiedGeneration,
+      final List<ComponentStateChangeDTO> changes) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    final List<ComponentStateChangeDTO> unmodifiableChanges =
+        Collections.unmodifiableList(changes);
+    executor.execute(new Runnable() {
+
+      @Override
+      public void run() {
+        for (ComponentStateChangeListener listener : listeners) {
+          listener.componentStatesChanged(notifiedGeneration, unmodifiableChanges);
+        }
+      }
+    });
+  }
+
+  /**
+   * Starts listening to the component container services and the bundle events of the framework.
+   */
+  public void open() {
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        Thread thread = new Thread(r, "ECM Webconsole State Tracker");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    if (checkPeriodInMs > 0) {
+      executor.scheduleWithFixedDelay(checkTask, checkPeriodInMs, checkPeriodInMs,
+          TimeUnit.MILLISECONDS);
+    }
+
+    try {
+      bundleContext.addServiceListener(this,
+          "(" + Constants.OBJECTCLASS + "=" + ComponentContainer.class.getName() + ")");
+    } catch (InvalidSyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+    bundleContext.addBundleListener(this);
+    checkGeneration();
+  }
+
+  /**
+   * Copies the counts of the bundles, so they can be read while the next check updates them.
+   */
+  private void publishBundleComponentCounts() {
+    Map<Long, BundleComponentCountsDTO> newBundleComponentCounts = new TreeMap<>();
+    Iterator<BundleComponentCountsDTO> iterator = countsByBundleId.values().iterator();
+    while (iterator.hasNext()) {
+      BundleComponentCountsDTO counts = iterator.next();
+      if (counts.containerCount == 0) {
+        iterator.remove();
+      } else {
+        BundleComponentCountsDTO copy = new BundleComponentCountsDTO();
+        copy.bundleId = counts.bundleId;
+        copy.containerCount = counts.containerCount;
+        copy.revisionCountByState = counts.revisionCountByState.clone();
+        copy.symbolicName = counts.symbolicName;
+        copy.unsatisfiedRequirementCount = counts.unsatisfiedRequirementCount;
+        newBundleComponentCounts.put(copy.bundleId, copy);
+      }
+    }
+    bundleComponentCounts = Collections.unmodifiableMap(newBundleComponentCounts);
+  }
+
+  /**
+   * Counts the unsatisfied requirements of a revision that stays unsatisfied again.
+   *
+   * @return <code>true</code> if the number of unsatisfied requirements changed.
+   */
+  private boolean recountUnsatisfiedRequirements(final RevisionSnapshot snapshot,
+      final ComponentRevision<?> revision) {
+    int count = countUnsatisfiedRequirements(snapshot.containerSnapshot.container, revision);
+    if (count == snapshot.unsatisfiedRequirementCount) {
+      return false;
+    }
+    snapshot.containerSnapshot.counts.unsatisfiedRequirementCount +=
+        count - snapshot.unsatisfiedRequirementCount;
+    snapshot.unsatisfiedRequirementCount = count;
+    return true;
+  }
+
+  /**
+   * Removes a previously registered listener.
+   *
+   * @param listener
+   *          The listener.
+   */
+  public void removeListener(final ComponentStateChangeListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void removeUnseenRevisions(final List<ComponentStateChangeDTO> changes) {
+    Iterator<Entry<ComponentRevision<?>, RevisionSnapshot>> iterator =
+        snapshotByRevision.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<ComponentRevision<?>, RevisionSnapshot> entry = iterator.next();
+      RevisionSnapshot snapshot = entry.getValue();
+      if (snapshot.checkCount != checkCount) {
+        applyState(snapshot, entry.getKey(), snapshot.state, -1);
+        iterator.remove();
+        changes.add(createChange(ComponentStateChangeType.REVISION_REMOVED,
+            snapshot.containerSnapshot, snapshot.ecmId, snapshot.state, null));
+      }
+    }
+  }
+
+  private BundleComponentCountsDTO resolveBundleComponentCounts(
+      final ServiceReference<ComponentContainer<?>> serviceReference) {
+
+    // The bundle is null if the container has been unregistered since the snapshot was taken
+    Bundle bundle = serviceReference.getBundle();
+    long bundleId = (bundle != null) ? bundle.getBundleId() : UNKNOWN_BUNDLE_ID;
+    BundleComponentCountsDTO result = countsByBundleId.get(bundleId);
+    if (result == null) {
+      result = new BundleComponentCountsDTO();
+      result.bundleId = bundleId;
+      result.symbolicName = (bundle != null) ? bundle.getSymbolicName() : null;
+      countsByBundleId.put(bundleId, result);
+    }
+    return result;
+  }
+
+  /**
+   * Resolves the period of the background check. An invalid value does not prevent the start of
+   * the bundle, the default period is used instead.
+   */
+  private long resolveCheckPeriod(final BundleContext bundleContext) {
+    String checkPeriod = bundleContext.getProperty(CHECK_PERIOD_PROPERTY);
+    if ((checkPeriod == null) || checkPeriod.trim().isEmpty()) {
+      return DEFAULT_CHECK_PERIOD_IN_MS;
+    }
+    if (!checkPeriod.trim().matches("\\d{1,9}")) {
+      LOGGER.warning("Invalid " + CHECK_PERIOD_PROPERTY + ", the default period of "
+          + DEFAULT_CHECK_PERIOD_IN_MS + " ms is used: " + checkPeriod);
+      return DEFAULT_CHECK_PERIOD_IN_MS;
+    }
+    return Long.parseLong(checkPeriod.trim());
+  }
+
+  private void scheduleCheck() {
+    if (checkScheduled.compareAndSet(false, true)) {
+      executor.execute(checkTask);
+    }
+  }
+
+  @Override
+  public void serviceChanged(final ServiceEvent event) {
+    // Only the component containers are listened to
+    scheduleCheck();
+  }
+
+  /**
+   * Compares the tracked containers to the previously seen ones. The revisions of the removed
+   * containers are removed later as they are not seen by the check.
+   *
+   * @return The changes of the removed containers, which are reported after the changes of their
+   *         revisions.
+   */
+  private List<ComponentStateChangeDTO> updateContainers(
+      final SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> tracked,
+      final List<ComponentStateChangeDTO> changes) {
+
+    // Kept in the order of the containers, so the changes are reported in the same order
+    Map<ServiceReference<ComponentContainer<?>>, ContainerSnapshot> newContainerSnapshots =
+        new LinkedHashMap<>();
+    for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> entry : tracked
+        .entrySet()) {
+      ServiceReference<ComponentContainer<?>> serviceReference = entry.getKey();
+      ContainerSnapshot containerSnapshot = containerSnapshots.remove(serviceReference);
+      if (containerSnapshot != null) {
+        containerSnapshot.modificationCount++;
+      } else {
+        containerSnapshot = new ContainerSnapshot(serviceReference, entry.getValue(),
+            resolveBundleComponentCounts(serviceReference));
+        containerSnapshot.counts.containerCount++;
+        changes.add(createChange(ComponentStateChangeType.CONTAINER_ADDED, containerSnapshot,
+            null, null, null));
+      }
+      newContainerSnapshots.put(serviceReference, containerSnapshot);
+    }
+
+    // The remaining snapshots belong to the removed containers
+    List<ComponentStateChangeDTO> removals = new ArrayList<>();
+    for (ContainerSnapshot containerSnapshot : containerSnapshots.values()) {
+      containerSnapshot.counts.containerCount--;
+      removals.add(createChange(ComponentStateChangeType.CONTAINER_REMOVED, containerSnapshot,
+          null, null, null));
+    }
+    containerSnapshots = newContainerSnapshots;
+    return removals;
+  }
+
+  /**
+   * Evaluates the health filter again for a revision whose state did not change, and adjusts the
+   * number of unhealthy revisions if the result differs.
+   */
+  private void updateHealthChecked(final RevisionSnapshot snapshot,
+      final ComponentRevision<?> revision) {
+    boolean healthChecked = matchesHealthFilter(snapshot, revision);
+    if (healthChecked == snapshot.healthChecked) {
+      return;
+    }
+    snapshot.healthChecked = healthChecked;
+    if (snapshot.state != ComponentState.ACTIVE) {
+      unhealthyRevisionCount += healthChecked ? 1 : -1;
+    }
+  }
+}
@@ -15,14 +15,18 @@
  */
 package org.everit.osgi.ecm.component.webconsole;
 
+import java.lang.management.ManagementFactory;
 import java.util.Hashtable;
 
 import javax.servlet.Servlet;
 
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.webconsole.graph.ECMGraphModel;
 import org.everit.osgi.ecm.component.webconsole.graph.ECMGraphWebConsolePlugin;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestMetrics;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.util.tracker.ServiceTracker;
 
@@ -31,12 +35,34 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class ECMWebConsoleActivator implements BundleActivator {
 
+  private ComponentContainerIndex containerIndex;
+
   private ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker;
 
+  private ComponentEventStream eventStream;
+
+  private final RevisionFragmentCache fragmentCache = new RevisionFragmentCache();
+
+  /**
+   * Compiles the graphFilter parameters of the requests. It is separate from the cache of the
+   * requirement filters, so the filters typed by the users do not evict those.
+   */
+  private final FilterCache graphFilterCache = new FilterCache();
+
+  private ECMGraphModel graphModel;
+
   private ServiceRegistration<Servlet> graphPluginSR;
 
+  private final RequestMetrics requestMetrics = new RequestMetrics();
+
+  private final FilterCache requirementFilterCache = new FilterCache();
+
+  private ECMStateTracker stateTracker;
+
   private ServiceRegistration<Servlet> tablePluginSR;
 
+  private WebConsolePluginTracker threadViewerTracker;
+
   private void registerGraphPlugin(final BundleContext context) {
     Hashtable<String, Object> servletProps = new Hashtable<String, Object>();
     servletProps.put("felix.webconsole.label", ECMGraphWebConsolePlugin.LABEL);
@@ -47,7 +73,7 @@ public class ECMWebConsoleActivator implements BundleActivator {
         "/" + ECMGraphWebConsolePlugin.LABEL + "/res/ecm-graph.css",
         "/" + ECMGraphWebConsolePlugin.LABEL + "/res/tipsy/stylesheets/tipsy.css" });
 
-    Servlet servlet = new ECMGraphWebConsolePlugin(containerTracker);
+    Servlet servlet = new ECMGraphWebConsolePlugin(graphModel, graphFilterCache, requestMetrics);
     graphPluginSR = context.registerService(Servlet.class, servlet, servletProps);
   }
 
@@ -58,19 +84,47 @@ public class ECMWebConsoleActivator implements BundleActivator {
     servletProps.put("felix.webconsole.title", "ECM Components");
     servletProps.put("felix.webconsole.css", "res/ui/config.css");
 
-    Servlet servlet = new ECMWebConsoleServlet(containerTracker, context);
+    Servlet servlet = new ECMWebConsoleServlet(containerIndex, context,
+        stateTracker, eventStream, fragmentCache, threadViewerTracker, requestMetrics,
+        graphModel);
     tablePluginSR = context.registerService(Servlet.class, servlet, servletProps);
   }
 
   @Override
   public void start(final BundleContext context) {
+    requestMetrics.addCache("requirementFilters", requirementFilterCache);
+    requestMetrics.addCache("graphFilters", graphFilterCache);
+    requestMetrics.addCache("revisionFragments", fragmentCache);
+
+    // Registered first, so nothing else is open yet if the platform MBean server is not available
+    requestMetrics.registerMBeans(ManagementFactory.getPlatformMBeanServer());
+
     @SuppressWarnings({ "unchecked", "rawtypes" })
     Class<ComponentContainer<?>> clazz = (Class) ComponentContainer.class;
 
+    containerIndex = new ComponentContainerIndex(context);
     containerTracker = new ServiceTracker<ComponentContainer<?>, ComponentContainer<?>>(context,
-        clazz, null);
+        clazz, containerIndex);
     containerTracker.open();
 
+    graphModel = new ECMGraphModel(context, containerIndex, requirementFilterCache);
+    graphModel.open();
+
+    stateTracker = new ECMStateTracker(context, containerIndex);
+    stateTracker.open();
+
+    eventStream = new ComponentEventStream(stateTracker);
+    eventStream.open();
+
+    stateTracker.addListener(fragmentCache);
+
+    try {
+      threadViewerTracker = new WebConsolePluginTracker(context, "threads");
+    } catch (InvalidSyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+    threadViewerTracker.open();
+
     registerTablePlugin(context);
     registerGraphPlugin(context);
   }
@@ -79,6 +133,12 @@ public class ECMWebConsoleActivator implements BundleActivator {
   public void stop(final BundleContext context) {
     tablePluginSR.unregister();
     graphPluginSR.unregister();
+    requestMetrics.unregisterMBeans();
+    graphModel.close();
+    eventStream.close();
+    stateTracker.removeListener(fragmentCache);
+    threadViewerTracker.close();
+    stateTracker.close();
     containerTracker.close();
   }
 
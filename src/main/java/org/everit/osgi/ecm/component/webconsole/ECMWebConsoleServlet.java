@@ -17,12 +17,10 @@ package org.everit.osgi.ecm.component.webconsole;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.SortedMap;
 
 import javax.servlet.Servlet;
 import javax.servlet.ServletConfig;
@@ -38,24 +36,39 @@ import org.everit.expression.jexl.JexlExpressionCompiler;
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
 import org.everit.osgi.ecm.component.resource.ComponentRevision;
 import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.webconsole.graph.ECMGraphModel;
+import org.everit.osgi.ecm.component.webconsole.metrics.PrometheusMetricsWriter;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestEndpoint;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestMetrics;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestPhase;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestTiming;
 import org.everit.templating.CompiledTemplate;
 import org.everit.templating.TemplateCompiler;
 import org.everit.templating.html.HTMLTemplateCompiler;
 import org.everit.templating.text.TextTemplateCompiler;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.metatype.MetaTypeProvider;
-import org.osgi.util.tracker.ServiceTracker;
+
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Webconsole plugin servlet that shows all ECM components and their states.
  */
 public class ECMWebConsoleServlet implements Servlet {
 
-  private static final ExceptionFormatter EXCEPTION_FORMATTER = new ExceptionFormatter();
+  /**
+   * The URI suffix of the Server-Sent Events stream of the component state changes.
+   */
+  private static final String EVENTS_URI_SUFFIX = "/events";
+
+  /**
+   * The URI suffix of the batch request that renders the details of several
+   * {@link ComponentRevision}s. The revisions are specified by the <code>revision</code> request
+   * parameters in the same <i>serviceId/servicePid</i> form as the single fragment requests.
+   */
+  private static final String FRAGMENTS_URI_SUFFIX = "/fragments";
 
   /**
    * In case there is a fragment suffix in the end of the URI, only the specified
@@ -63,31 +76,84 @@ public class ECMWebConsoleServlet implements Servlet {
    */
   private static final String FRAGMENT_URI_SUFFIX = ".fragment";
 
+  /**
+   * The URI suffix of the health check that can be used by load balancers and orchestrators.
+   */
+  private static final String HEALTH_URI_SUFFIX = "/health";
+
   private static final int HTTP_NOT_FOUND = 404;
 
-  private final BundleContext bundleContext;
+  private static final int MAX_BATCH_FRAGMENT_COUNT = 1000;
+
+  /**
+   * The URI suffix of the JSON representation of the {@link RequestMetrics}.
+   */
+  private static final String METRICS_URI_SUFFIX = "/metrics.json";
+
+  /**
+   * The URI suffix of the component metrics in the Prometheus text format.
+   */
+  private static final String PROMETHEUS_URI_SUFFIX = "/metrics";
 
   private final ClassLoader classLoader;
 
+  private final ComponentContainerIndex containerIndex;
+
   private final CompiledTemplate componentsTemplate;
 
-  private final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker;
+  private final ComponentEventStream eventStream;
+
+  private final ExceptionFormatter exceptionFormatter;
+
+  private final RevisionFragmentCache fragmentCache;
+
+  private final ECMGraphModel graphModel;
+
+  private final RequestMetrics requestMetrics;
 
   private ServletConfig servletConfig;
 
+  private final ECMStateTracker stateTracker;
+
+  private final ComponentTableIndex tableIndex;
+
+  private final WebConsolePluginTracker threadViewerTracker;
+
   /**
    * Constructor.
    *
-   * @param containerTracker
-   *          The {@link ServiceTracker} that tracks all {@link ComponentContainer} services.
+   * @param containerIndex
+   *          The index of the tracked containers by their service id.
    * @param bundleContext
    *          The context of the bundle that contains this webconsole plugin.
+   * @param stateTracker
+   *          Tracks the state of the components and provides the ETags of the fragments.
+   * @param eventStream
+   *          The stream that pushes the state changes of the components to the browsers.
+   * @param fragmentCache
+   *          The cache of the rendered details of the revisions.
+   * @param threadViewerTracker
+   *          Tracks whether the thread viewer webconsole plugin is available.
+   * @param requestMetrics
+   *          The metrics that the latencies and sizes of the requests are recorded into.
+   * @param graphModel
+   *          The model of the graph plugin that measures the generation of the graph.
    */
   public ECMWebConsoleServlet(
-      final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker,
-      final BundleContext bundleContext) {
-    this.containerTracker = containerTracker;
-    this.bundleContext = bundleContext;
+      final ComponentContainerIndex containerIndex, final BundleContext bundleContext,
+      final ECMStateTracker stateTracker, final ComponentEventStream eventStream,
+      final RevisionFragmentCache fragmentCache,
+      final WebConsolePluginTracker threadViewerTracker, final RequestMetrics requestMetrics,
+      final ECMGraphModel graphModel) {
+    this.containerIndex = containerIndex;
+    this.stateTracker = stateTracker;
+    this.eventStream = eventStream;
+    this.fragmentCache = fragmentCache;
+    this.threadViewerTracker = threadViewerTracker;
+    this.requestMetrics = requestMetrics;
+    this.graphModel = graphModel;
+    tableIndex = new ComponentTableIndex(containerIndex, stateTracker);
+    exceptionFormatter = createExceptionFormatter(bundleContext);
     classLoader = bundleContext.getBundle().adapt(BundleWiring.class).getClassLoader();
 
     ExpressionCompiler expressionCompiler = new JexlExpressionCompiler();
@@ -113,88 +179,43 @@ public class ECMWebConsoleServlet implements Servlet {
 
   }
 
-  private ComponentStateSum addState(final ComponentStateSum result, final ComponentState state) {
-    switch (state) {
-      case ACTIVE:
-        result.setActive(result.getActive() + 1);
-        break;
-      case UNSATISFIED:
-        result.setUnsatisfied(result.getUnsatisfied() + 1);
-        break;
-      case FAILED:
-        result.setFailed(result.getFailed() + 1);
-        break;
-      case STARTING:
-        result.setStarting(result.getStarting() + 1);
-        break;
-      case STOPPING:
-        result.setStopping(result.getStopping() + 1);
-        break;
-      case INACTIVE:
-        result.setInactive(result.getInactive() + 1);
-        break;
-      case FAILED_PERMANENT:
-        break;
-      case UPDATING_CONFIGURATION:
-        break;
-      default:
-        break;
-    }
-    return result;
+  private void addThreadViewerAvailablityToVars(final Map<String, Object> vars) {
+    vars.put("threadViewerAvailable", threadViewerTracker.isAvailable());
   }
 
-  private void addThreadViewerAvailablityToVars(final Map<String, Object> vars)
-      throws ServletException {
-    boolean threadViewerAvailable = false;
-    try {
-      threadViewerAvailable = bundleContext.getServiceReferences(Servlet.class.getName(),
-          "(felix.webconsole.label=threads)") != null;
-    } catch (InvalidSyntaxException e) {
-      throw new ServletException(e);
+  private ExceptionFormatter createExceptionFormatter(final BundleContext bundleContext) {
+    String maxFrameCount = bundleContext.getProperty(ExceptionFormatter.MAX_FRAME_COUNT_PROPERTY);
+    if ((maxFrameCount == null) || !maxFrameCount.trim().matches("\\d{1,9}")) {
+      return new ExceptionFormatter();
     }
-
-    vars.put("threadViewerAvailable", threadViewerAvailable);
-  }
-
-  private ComponentStateSum countStates(
-      final SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> ccMap) {
-    ComponentStateSum result = new ComponentStateSum();
-    for (ComponentContainer<?> cc : ccMap.values()) {
-      for (ComponentRevision<?> cr : cc.getResources()) {
-        result = addState(result, cr.getState());
-      }
-    }
-
-    return result;
+    return new ExceptionFormatter(Integer.parseInt(maxFrameCount.trim()));
   }
 
   @Override
   public void destroy() {
   }
 
-  private ComponentContainer<?> findContainerByServiceId(
-      final String serviceId) {
-
-    Set<Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>>> entrySet;
-    entrySet = containerTracker.getTracked().entrySet();
-
-    Iterator<Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>>> iterator;
-    iterator = entrySet.iterator();
-
-    ComponentContainer<?> result = null;
+  private String escapeAttributeValue(final String value) {
+    return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;")
+        .replace(">", "&gt;");
+  }
 
-    while ((result == null) && iterator.hasNext()) {
-      Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> entry = iterator.next();
-      ServiceReference<ComponentContainer<?>> serviceReference = entry.getKey();
-      if (serviceId.equals(String.valueOf(serviceReference.getProperty(Constants.SERVICE_ID)))) {
-        result = entry.getValue();
-      }
+  private ComponentContainer<?> findContainerByServiceId(final String serviceId) {
+    if (!serviceId.matches("\\d{1,18}")) {
+      return null;
     }
-    return result;
+    return containerIndex.getContainer(Long.parseLong(serviceId));
   }
 
-  private ComponentRevision<?> findRevision(final ComponentRevision<?>[] revisions,
+  private ComponentRevision<?> findRevision(final ComponentContainer<?> container,
       final String servicePid) {
+    ComponentRevision<?> indexedRevision = stateTracker.getRevisionByServicePid(servicePid);
+    if ((indexedRevision != null) && (indexedRevision.getComponentContainer() == container)) {
+      return indexedRevision;
+    }
+
+    // The revision might have been created after the last update of the index
+    ComponentRevision<?>[] revisions = container.getResources();
     ComponentRevision<?> result = null;
     for (int i = 0; (i < revisions.length) && (result == null); i++) {
       ComponentRevision<?> componentRevision = revisions[i];
@@ -205,6 +226,28 @@ public class ECMWebConsoleServlet implements Servlet {
     return result;
   }
 
+  /**
+   * Finds a revision by the <i>serviceId/servicePid</i> form that is used in the fragment
+   * requests. If the service PID is not specified, the container must have exactly one revision.
+   */
+  private ComponentRevision<?> findRevision(final String serviceIdAndPid) {
+    String[] split = serviceIdAndPid.split("\\/");
+
+    ComponentContainer<?> container = findContainerByServiceId(split[0]);
+    if (container == null) {
+      return null;
+    }
+
+    if (split.length > 1) {
+      return findRevision(container, split[1]);
+    }
+    ComponentRevision<?>[] revisions = container.getResources();
+    if (revisions.length == 1) {
+      return revisions[0];
+    }
+    return null;
+  }
+
   @Override
   public ServletConfig getServletConfig() {
     return servletConfig;
@@ -221,71 +264,240 @@ public class ECMWebConsoleServlet implements Servlet {
 
   }
 
-  @Override
-  public void service(final ServletRequest req, final ServletResponse resp)
-      throws ServletException, IOException {
-
-    HttpServletRequest httpReq = (HttpServletRequest) req;
-    HttpServletResponse httpResp = (HttpServletResponse) resp;
+  private void render(final HttpServletRequest req, final HttpServletResponse resp,
+      final RequestEndpoint endpoint, final RequestTiming timing) throws IOException {
 
-    httpResp.setContentType("text/html");
+    String appRoot = (String) req.getAttribute("felix.webconsole.appRoot");
+    String pluginRoot = (String) req.getAttribute("felix.webconsole.pluginRoot");
 
-    PrintWriter writer = httpResp.getWriter();
+    resp.setContentType("text/html");
 
-    String appRoot = (String) httpReq.getAttribute("felix.webconsole.appRoot");
-    String pluginRoot = (String) httpReq.getAttribute("felix.webconsole.pluginRoot");
-
-    String requestURI = httpReq.getRequestURI();
+    PrintWriter writer = timing.getWriter(resp);
 
-    ComponentStateSum numberOfComponetntsByState = countStates(containerTracker.getTracked());
+    ComponentStateSum numberOfComponetntsByState = stateTracker.getComponentStateSum();
 
     Map<String, Object> vars = new HashMap<String, Object>();
-    vars.put("ccMap", containerTracker.getTracked());
     vars.put("appRoot", appRoot);
     vars.put("pluginRoot", pluginRoot);
 
     Clause2StringConverter clauseUtil = new Clause2StringConverter();
 
     vars.put("templateUtil", clauseUtil);
-    vars.put("exceptionFormatter", EXCEPTION_FORMATTER);
+    vars.put("exceptionFormatter", exceptionFormatter);
     vars.put("numberOfComponetntsByState", numberOfComponetntsByState);
     vars.put("consoleUtil", new ECMWebConsoleUtil());
 
-    if (requestURI.equals(pluginRoot)) {
-      componentsTemplate.render(writer, vars, "content");
-    } else if (requestURI.endsWith(FRAGMENT_URI_SUFFIX)) {
-      addThreadViewerAvailablityToVars(vars);
+    if (endpoint == RequestEndpoint.TABLE_PAGE) {
+      ComponentTablePage tablePage = tableIndex.query(ComponentTableQuery.parse(req));
+      vars.put("tablePage", tablePage);
+      vars.put("ccMap", tablePage.getContainers());
+      vars.put("componentStates", ComponentState.values());
+      timing.endPhase(RequestPhase.SNAPSHOT);
 
+      componentsTemplate.render(writer, vars, "content");
+      timing.endPhase(RequestPhase.SERIALIZATION);
+    } else if (endpoint == RequestEndpoint.FRAGMENTS) {
+      renderFragments(req, resp, writer, vars);
+      timing.endPhase(RequestPhase.SERIALIZATION);
+    } else {
+      String requestURI = req.getRequestURI();
       String serviceIdAndPid = requestURI.substring(pluginRoot.length() + 1,
           requestURI.length() - FRAGMENT_URI_SUFFIX.length());
-      String[] split = serviceIdAndPid.split("\\/");
-
-      ComponentContainer<?> container = findContainerByServiceId(split[0]);
 
-      if (container == null) {
-        httpResp.setStatus(HTTP_NOT_FOUND);
+      ComponentRevision<?> revision = findRevision(serviceIdAndPid);
+      if (revision == null) {
+        resp.setStatus(HTTP_NOT_FOUND);
         return;
       }
 
-      ComponentRevision<?>[] revisions = container.getResources();
-      ComponentRevision<?> revision = null;
-      if (split.length > 1) {
-        revision = findRevision(revisions, split[1]);
-      } else if (revisions.length == 1) {
-        revision = revisions[0];
+      addThreadViewerAvailablityToVars(vars);
+      String version = resolveFragmentVersion(revision, vars);
+      if (HttpCacheUtil.checkNotModified(req, resp, version)) {
+        return;
       }
+      timing.endPhase(RequestPhase.SNAPSHOT);
 
-      if (revision == null) {
-        httpResp.setStatus(HTTP_NOT_FOUND);
-        return;
+      renderRevision(writer, vars, revision, version);
+      timing.endPhase(RequestPhase.SERIALIZATION);
+    }
+  }
+
+  private void renderFragments(final HttpServletRequest req, final HttpServletResponse resp,
+      final PrintWriter writer, final Map<String, Object> vars) {
+
+    String[] revisionParams = req.getParameterValues("revision");
+    if (revisionParams == null) {
+      return;
+    }
+    if (revisionParams.length > MAX_BATCH_FRAGMENT_COUNT) {
+      resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+
+    addThreadViewerAvailablityToVars(vars);
+
+    // Revisions that are not found are left out, the client notices that they are missing
+    for (String revisionParam : revisionParams) {
+      ComponentRevision<?> revision = findRevision(revisionParam);
+      if (revision != null) {
+        writer.write("<div class=\"ecm_components_fragment\" data-revision=\""
+            + escapeAttributeValue(revisionParam) + "\">");
+        renderRevision(writer, vars, revision, resolveFragmentVersion(revision, vars));
+        writer.write("</div>\n");
       }
+    }
+  }
+
+  /**
+   * Writes the details of a revision. The fragment is rendered only if it is not cached with the
+   * same version. Revisions that are being processed by a thread are not cached, as the thread is
+   * not part of the version.
+   *
+   * @param version
+   *          The version of the fragment that is resolved by
+   *          {@link #resolveFragmentVersion(ComponentRevision, Map)}.
+   */
+  private void renderRevision(final PrintWriter writer, final Map<String, Object> vars,
+      final ComponentRevision<?> revision, final String version) {
 
-      vars.put("revision", revision);
-      vars.put("container", container);
+    vars.put("revision", revision);
+    vars.put("container", revision.getComponentContainer());
 
+    if (revision.getProcessingThread() != null) {
       componentsTemplate.render(writer, vars, "componentRevision");
-    } else {
+      return;
+    }
+
+    String html = fragmentCache.get(revision, version);
+    if (html == null) {
+      StringWriter stringWriter = new StringWriter();
+      componentsTemplate.render(stringWriter, vars, "componentRevision");
+      html = stringWriter.toString();
+      fragmentCache.put(revision, version, html);
+    }
+    writer.write(html);
+  }
+
+  /**
+   * Resolves the version of the details of a revision that is used both as the entity tag of the
+   * fragment and as the key of the fragment cache. The availability of the thread viewer is part
+   * of the version, as the rendered details link to it.
+   *
+   * @return The version in quoted form.
+   */
+  private String resolveFragmentVersion(final ComponentRevision<?> revision,
+      final Map<String, Object> vars) {
+    String eTag = stateTracker.getETag(revision);
+    return eTag.substring(0, eTag.length() - 1) + '-' + vars.get("threadViewerAvailable") + '"';
+  }
+
+  /**
+   * Resolves the measured endpoint of a request.
+   *
+   * @return The endpoint or <code>null</code> if the URI does not belong to any endpoint.
+   */
+  private RequestEndpoint resolveEndpoint(final String pluginRoot, final String requestURI) {
+    if (requestURI.equals(pluginRoot)) {
+      return RequestEndpoint.TABLE_PAGE;
+    } else if (requestURI.equals(pluginRoot + FRAGMENTS_URI_SUFFIX)) {
+      return RequestEndpoint.FRAGMENTS;
+    } else if (requestURI.endsWith(FRAGMENT_URI_SUFFIX)) {
+      return RequestEndpoint.FRAGMENT;
+    }
+    return null;
+  }
+
+  @Override
+  public void service(final ServletRequest req, final ServletResponse resp)
+      throws ServletException, IOException {
+
+    HttpServletRequest httpReq = (HttpServletRequest) req;
+    HttpServletResponse httpResp = (HttpServletResponse) resp;
+
+    String pluginRoot = (String) httpReq.getAttribute("felix.webconsole.pluginRoot");
+
+    String requestURI = httpReq.getRequestURI();
+
+    if (requestURI.equals(pluginRoot + EVENTS_URI_SUFFIX)) {
+      eventStream.handle(httpReq, httpResp);
+      return;
+    }
+
+    if (requestURI.equals(pluginRoot + HEALTH_URI_SUFFIX)) {
+      writeHealth(httpResp);
+      return;
+    }
+
+    if (requestURI.equals(pluginRoot + METRICS_URI_SUFFIX)) {
+      httpResp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      httpResp.setContentType("application/json");
+      httpResp.setHeader("Cache-Control", "no-cache");
+      requestMetrics.writeJson(httpResp.getWriter());
+      return;
+    }
+
+    if (requestURI.equals(pluginRoot + PROMETHEUS_URI_SUFFIX)) {
+      writePrometheusMetrics(httpResp);
+      return;
+    }
+
+    RequestEndpoint endpoint = resolveEndpoint(pluginRoot, requestURI);
+    if (endpoint == null) {
+      httpResp.setContentType("text/html");
       httpResp.setStatus(HTTP_NOT_FOUND);
+      return;
     }
+
+    RequestTiming timing = requestMetrics.getEndpointMetrics(endpoint).startRequest();
+    try {
+      render(httpReq, httpResp, endpoint, timing);
+    } finally {
+      timing.end();
+    }
+  }
+
+  /**
+   * Writes <code>OK</code> if all revisions that match the health filter are active and
+   * <code>DEGRADED</code> with status 503 otherwise. The number of the unhealthy revisions is
+   * maintained by the state tracker, so the answer does not depend on the number of components. An
+   * invalid health filter is reported as <code>DEGRADED</code>, too.
+   */
+  private void writeHealth(final HttpServletResponse resp) throws IOException {
+    int unhealthyRevisionCount = stateTracker.getUnhealthyRevisionCount();
+    String invalidHealthFilter = stateTracker.getInvalidHealthFilter();
+    boolean degraded = (unhealthyRevisionCount > 0) || (invalidHealthFilter != null);
+    if (degraded) {
+      resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+    resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    resp.setContentType("application/json");
+    resp.setHeader("Cache-Control", "no-cache");
+
+    JsonWriter jsonWriter = new JsonWriter(resp.getWriter());
+    jsonWriter.beginObject();
+    jsonWriter.name("status").value(degraded ? "DEGRADED" : "OK");
+    jsonWriter.name("unhealthyRevisionCount").value(unhealthyRevisionCount);
+    if (invalidHealthFilter != null) {
+      jsonWriter.name("invalidHealthFilter").value(invalidHealthFilter);
+    }
+    jsonWriter.endObject();
+    jsonWriter.flush();
+  }
+
+  /**
+   * Writes the component counts, the graph generation times and the metrics of the caches. The
+   * counts are maintained by the state tracker, so the containers are not iterated.
+   */
+  private void writePrometheusMetrics(final HttpServletResponse resp) throws IOException {
+    resp.setContentType(PrometheusMetricsWriter.CONTENT_TYPE);
+    resp.setHeader("Cache-Control", "no-cache");
+
+    PrometheusMetricsWriter metricsWriter = new PrometheusMetricsWriter(resp.getWriter());
+    metricsWriter.writeComponentCounts(stateTracker.getBundleComponentCounts());
+    metricsWriter.writeMicrosHistogramInSeconds("ecm_component_graph_generation_seconds",
+        "The time of generating the ECM component graph after a change.",
+        graphModel.getGenerationTime());
+    metricsWriter.writeCacheMetrics(requestMetrics.getCaches());
+    metricsWriter.flush();
   }
 }
@@ -15,16 +15,106 @@
  */
 package org.everit.osgi.ecm.component.webconsole;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
- * Formats and exception to text that can be written to output.
+ * Formats and exception to text that can be written to output. The format is the same as the one
+ * of {@link Throwable#printStackTrace()}, but the number of the written frames of every throwable
+ * in the chain is limited. The formatted text of a throwable is cached as long as the throwable is
+ * referenced from elsewhere, so the same cause of many failed components is formatted only once.
  */
 public class ExceptionFormatter {
 
   /**
-   * Converts a throwable to a String by calling {@link Throwable#printStackTrace(PrintWriter)}.
+   * The default maximum number of stack frames that are written for every throwable in the chain.
+   */
+  public static final int DEFAULT_MAX_FRAME_COUNT = 50;
+
+  /**
+   * Name of the framework property that overrides the maximum number of stack frames that are
+   * written for every throwable in the chain.
+   */
+  public static final String MAX_FRAME_COUNT_PROPERTY =
+      "org.everit.osgi.ecm.component.webconsole.exception.maxFrameCount";
+
+  /**
+   * The formatted throwables. Throwables do not override {@link Object#equals(Object)}, so the
+   * keys are compared by identity.
+   */
+  private final Map<Throwable, String> formattedByThrowable =
+      Collections.synchronizedMap(new WeakHashMap<Throwable, String>());
+
+  private final int maxFrameCount;
+
+  public ExceptionFormatter() {
+    this(DEFAULT_MAX_FRAME_COUNT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxFrameCount
+   *          The maximum number of stack frames that are written for every throwable in the chain.
+   */
+  public ExceptionFormatter(final int maxFrameCount) {
+    this.maxFrameCount = maxFrameCount;
+  }
+
+  private void appendEnclosedThrowable(final StringBuilder sb, final Throwable throwable,
+      final StackTraceElement[] enclosingTrace, final String caption, final String prefix,
+      final Set<Throwable> dejaVu) {
+
+    if (dejaVu.contains(throwable)) {
+      sb.append(prefix).append(caption).append("[CIRCULAR REFERENCE: ").append(throwable)
+          .append("]\n");
+      return;
+    }
+    dejaVu.add(throwable);
+
+    // The frames that are the same at the end of the enclosing trace are not written
+    StackTraceElement[] trace = throwable.getStackTrace();
+    int m = trace.length - 1;
+    int n = enclosingTrace.length - 1;
+    while ((m >= 0) && (n >= 0) && trace[m].equals(enclosingTrace[n])) {
+      m--;
+      n--;
+    }
+    int framesInCommon = trace.length - 1 - m;
+
+    sb.append(prefix).append(caption).append(throwable).append('\n');
+    appendFrames(sb, trace, m + 1, prefix);
+    if (framesInCommon != 0) {
+      sb.append(prefix).append("\t... ").append(framesInCommon).append(" more\n");
+    }
+
+    for (Throwable suppressed : throwable.getSuppressed()) {
+      appendEnclosedThrowable(sb, suppressed, trace, "Suppressed: ", prefix + '\t', dejaVu);
+    }
+
+    Throwable cause = throwable.getCause();
+    if (cause != null) {
+      appendEnclosedThrowable(sb, cause, trace, "Caused by: ", prefix, dejaVu);
+    }
+  }
+
+  private void appendFrames(final StringBuilder sb, final StackTraceElement[] trace,
+      final int frameCount, final String prefix) {
+    int writtenFrameCount = Math.min(frameCount, maxFrameCount);
+    for (int i = 0; i < writtenFrameCount; i++) {
+      sb.append(prefix).append("\tat ").append(trace[i]).append('\n');
+    }
+    if (writtenFrameCount < frameCount) {
+      sb.append(prefix).append("\t... ").append(frameCount - writtenFrameCount)
+          .append(" frames truncated\n");
+    }
+  }
+
+  /**
+   * Converts a throwable to a String in the format of {@link Throwable#printStackTrace()}.
    *
    * @param throwable
    *          The {@link Throwable} that should be converted to a {@link String} representation.
@@ -32,9 +122,30 @@ public class ExceptionFormatter {
    * @return The {@link String} representation of the {@link Throwable}.
    */
   public String format(final Throwable throwable) {
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter(sw);
-    throwable.printStackTrace(pw);
-    return sw.toString();
+    String result = formattedByThrowable.get(throwable);
+    if (result != null) {
+      return result;
+    }
+
+    Set<Throwable> dejaVu = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+    dejaVu.add(throwable);
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(throwable).append('\n');
+    StackTraceElement[] trace = throwable.getStackTrace();
+    appendFrames(sb, trace, trace.length, "");
+
+    for (Throwable suppressed : throwable.getSuppressed()) {
+      appendEnclosedThrowable(sb, suppressed, trace, "Suppressed: ", "\t", dejaVu);
+    }
+
+    Throwable cause = throwable.getCause();
+    if (cause != null) {
+      appendEnclosedThrowable(sb, cause, trace, "Caused by: ", "", dejaVu);
+    }
+
+    result = sb.toString();
+    formattedByThrowable.put(throwable, result);
+    return result;
   }
 }
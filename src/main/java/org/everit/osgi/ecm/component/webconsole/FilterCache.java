@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.everit.osgi.ecm.component.webconsole.metrics.CacheMetricsMXBean;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Bounded cache of compiled LDAP filters. The least recently used filter is evicted if the cache is
+ * full.
+ */
+public class FilterCache implements CacheMetricsMXBean {
+
+  /**
+   * The default maximum number of cached filters.
+   */
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  private final Map<String, Filter> filters;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  public FilterCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize
+   *          The maximum number of filters that are held by the cache.
+   */
+  public FilterCache(final int maxSize) {
+    filters = new LinkedHashMap<String, Filter>(maxSize, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(final Map.Entry<String, Filter> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Returns the compiled filter of a filter expression. The filter is compiled with
+   * {@link FrameworkUtil#createFilter(String)} only if it is not in the cache yet.
+   *
+   * @param filterString
+   *          The LDAP filter expression.
+   * @return The compiled filter.
+   * @throws InvalidSyntaxException
+   *           if the filter expression is not valid.
+   */
+  public Filter getFilter(final String filterString) throws InvalidSyntaxException {
+    Filter filter;
+    synchronized (filters) {
+      filter = filters.get(filterString);
+    }
+    if (filter != null) {
+      hitCount.incrementAndGet();
+      return filter;
+    }
+
+    missCount.incrementAndGet();
+    filter = FrameworkUtil.createFilter(filterString);
+    synchronized (filters) {
+      filters.put(filterString, filter);
+    }
+    return filter;
+  }
+
+  @Override
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public int getSize() {
+    synchronized (filters) {
+      return filters.size();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Util methods for answering conditional GET requests.
+ */
+public final class HttpCacheUtil {
+
+  /**
+   * Sets the ETag header on the response and checks whether the client already has the same
+   * representation. If it has, the status of the response is set to 304 (Not Modified).
+   *
+   * @param req
+   *          The HTTP request.
+   * @param resp
+   *          The HTTP response.
+   * @param eTag
+   *          The entity tag of the representation in quoted form.
+   * @return <code>true</code> if the client has the same representation and the body should not
+   *         be written.
+   */
+  public static boolean checkNotModified(final HttpServletRequest req,
+      final HttpServletResponse resp, final String eTag) {
+
+    resp.setHeader("ETag", eTag);
+    resp.setHeader("Cache-Control", "no-cache");
+
+    String ifNoneMatch = req.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+
+    for (String requestedETag : ifNoneMatch.split(",")) {
+      String trimmedETag = requestedETag.trim();
+      if ("*".equals(trimmedETag) || eTag.equals(trimmedETag)
+          || ("W/" + eTag).equals(trimmedETag)) {
+        resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private HttpCacheUtil() {
+  }
+}
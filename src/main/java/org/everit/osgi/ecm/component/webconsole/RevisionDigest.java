@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.resource.ComponentRequirement;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Wire;
+
+/**
+ * Calculates a 64 bit digest of the data that the details of a {@link ComponentRevision} are
+ * rendered from: the state, the properties, the requirements with their wires, the capabilities,
+ * the processing thread and the cause of the failure. Unlike the state, the digest changes if the
+ * configuration of the revision is updated or the revision is wired to other capabilities.
+ */
+final class RevisionDigest {
+
+  private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  /**
+   * Maximum number of throwables that are digested from the cause chain.
+   */
+  private static final int MAX_CAUSE_DEPTH = 16;
+
+  /**
+   * Calculates the digest of a revision.
+   *
+   * @param revision
+   *          The revision.
+   * @return The digest.
+   */
+  public static long calculate(final ComponentRevision<?> revision) {
+    RevisionDigest digest = new RevisionDigest();
+    digest.add(revision.getState().ordinal());
+    digest.add(revision.getProperties());
+
+    ComponentContainer<?> container = revision.getComponentContainer();
+    for (Requirement requirement : revision.getRequirements(null)) {
+      digest.addRequirement(requirement);
+      if (requirement instanceof ComponentRequirement) {
+        Wire[] wires = container.getWiresByRequirement(requirement);
+        digest.add(wires.length);
+        for (Wire wire : wires) {
+          digest.addCapability(wire.getCapability());
+        }
+      }
+    }
+    for (Capability capability : revision.getCapabilities(null)) {
+      digest.addCapability(capability);
+    }
+
+    Thread processingThread = revision.getProcessingThread();
+    if (processingThread != null) {
+      digest.add(processingThread.getId());
+      digest.add(processingThread.getName());
+    }
+
+    Throwable cause = revision.getCause();
+    for (int i = 0; (cause != null) && (i < MAX_CAUSE_DEPTH); i++) {
+      digest.add(cause.toString());
+      cause = (cause.getCause() != cause) ? cause.getCause() : null;
+    }
+    return digest.hash;
+  }
+
+  private long hash = FNV_OFFSET_BASIS;
+
+  private RevisionDigest() {
+  }
+
+  private void add(final long value) {
+    hash = (hash ^ value) * FNV_PRIME;
+  }
+
+  private void add(final Object value) {
+    if (value == null) {
+      add(0);
+    } else if (value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      add(length);
+      for (int i = 0; i < length; i++) {
+        add(Array.get(value, i));
+      }
+    } else if (value instanceof Map) {
+      add(digestEntries((Map<?, ?>) value));
+    } else if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      add(collection.size());
+      for (Object element : collection) {
+        add(element);
+      }
+    } else {
+      add(value.hashCode());
+    }
+  }
+
+  private void addCapability(final Capability capability) {
+    add(capability.getNamespace());
+    add(capability.getAttributes());
+    add(capability.getDirectives());
+    if (capability instanceof BundleCapability) {
+      BundleRevision bundleRevision = ((BundleCapability) capability).getRevision();
+      add(bundleRevision.getBundle().getBundleId());
+      add(bundleRevision.getSymbolicName());
+      add(bundleRevision.getVersion());
+    }
+  }
+
+  private void addRequirement(final Requirement requirement) {
+    add(requirement.getNamespace());
+    add(requirement.getAttributes());
+    add(requirement.getDirectives());
+    if (requirement instanceof ComponentRequirement) {
+      add(((ComponentRequirement<?, ?>) requirement).getRequirementId());
+    }
+  }
+
+  /**
+   * Digests the entries of a map independently of their order.
+   */
+  private long digestEntries(final Map<?, ?> map) {
+    long result = map.size();
+    for (Entry<?, ?> entry : map.entrySet()) {
+      RevisionDigest entryDigest = new RevisionDigest();
+      entryDigest.add(entry.getKey());
+      entryDigest.add(entry.getValue());
+      result += entryDigest.hash;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.webconsole.metrics.CacheMetricsMXBean;
+
+/**
+ * Bounded cache of the rendered details of {@link ComponentRevision}s. Every fragment is stored
+ * with the version of the revision that it was rendered from and it is only returned if the
+ * version is still the same. The least recently used fragment is evicted if the cache is full. The
+ * versions are calculated from the content of the revisions, so the fragments of the unchanged
+ * revisions stay valid when other components change.
+ */
+public class RevisionFragmentCache
+    implements CacheMetricsMXBean, ComponentStateChangeListener {
+
+  /**
+   * A rendered fragment with the version of the revision.
+   */
+  private static class CachedFragment {
+
+    final String html;
+
+    final String version;
+
+    CachedFragment(final String version, final String html) {
+      this.version = version;
+      this.html = html;
+    }
+  }
+
+  /**
+   * The default maximum number of cached fragments.
+   */
+  public static final int DEFAULT_MAX_SIZE = 256;
+
+  private final Map<ComponentRevision<?>, CachedFragment> fragments;
+
+  private final AtomicLong hitCount = new AtomicLong();
+
+  private final AtomicLong missCount = new AtomicLong();
+
+  public RevisionFragmentCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize
+   *          The maximum number of fragments that are held by the cache.
+   */
+  public RevisionFragmentCache(final int maxSize) {
+    fragments = new LinkedHashMap<ComponentRevision<?>, CachedFragment>(maxSize, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          final Map.Entry<ComponentRevision<?>, CachedFragment> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  @Override
+  public void componentStatesChanged(final long generation,
+      final List<ComponentStateChangeDTO> changes) {
+    // The cache is keyed by the revisions, so the removed revisions must be released. The
+    // changes do not reference the revision objects, so all fragments are dropped in that case.
+    for (ComponentStateChangeDTO change : changes) {
+      if ((change.changeType == ComponentStateChangeType.REVISION_REMOVED)
+          || (change.changeType == ComponentStateChangeType.CONTAINER_REMOVED)) {
+        synchronized (fragments) {
+          fragments.clear();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the rendered fragment of a revision.
+   *
+   * @param revision
+   *          The revision.
+   * @param version
+   *          The current version of the revision.
+   * @return The fragment or <code>null</code> if the fragment is not cached or it was rendered
+   *         from another version of the revision.
+   */
+  public String get(final ComponentRevision<?> revision, final String version) {
+    CachedFragment cachedFragment;
+    synchronized (fragments) {
+      cachedFragment = fragments.get(revision);
+    }
+    if ((cachedFragment == null) || !cachedFragment.version.equals(version)) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    return cachedFragment.html;
+  }
+
+  @Override
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  @Override
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public int getSize() {
+    synchronized (fragments) {
+      return fragments.size();
+    }
+  }
+
+  /**
+   * Stores the rendered fragment of a revision.
+   *
+   * @param revision
+   *          The revision.
+   * @param version
+   *          The version of the revision that the fragment was rendered from.
+   * @param html
+   *          The rendered fragment.
+   */
+  public void put(final ComponentRevision<?> revision, final String version, final String html) {
+    synchronized (fragments) {
+      fragments.put(revision, new CachedFragment(version, html));
+    }
+  }
+}
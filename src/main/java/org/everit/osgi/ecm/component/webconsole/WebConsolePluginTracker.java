@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import javax.servlet.Servlet;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Tracks whether another webconsole plugin is available, so pages can link to it. The availability
+ * is kept up to date by the service events, so it can be read on every request without querying
+ * the service registry. The plugin services are not got, only their references are tracked.
+ */
+public class WebConsolePluginTracker
+    extends ServiceTracker<Servlet, ServiceReference<Servlet>> {
+
+  private static String createFilter(final String label) {
+    return "(&(" + Constants.OBJECTCLASS + "=" + Servlet.class.getName()
+        + ")(felix.webconsole.label=" + label + "))";
+  }
+
+  private volatile boolean available = false;
+
+  /**
+   * Constructor.
+   *
+   * @param context
+   *          The context of the bundle that contains this webconsole plugin.
+   * @param label
+   *          The value of the <code>felix.webconsole.label</code> property of the tracked plugin.
+   * @throws InvalidSyntaxException
+   *           if the label contains characters that are not allowed in a filter.
+   */
+  public WebConsolePluginTracker(final BundleContext context, final String label)
+      throws InvalidSyntaxException {
+    super(context, context.createFilter(createFilter(label)), null);
+  }
+
+  @Override
+  public ServiceReference<Servlet> addingService(final ServiceReference<Servlet> reference) {
+    available = true;
+    return reference;
+  }
+
+  /**
+   * Whether at least one plugin with the label is registered.
+   *
+   * @return <code>true</code> if the plugin is available.
+   */
+  public boolean isAvailable() {
+    return available;
+  }
+
+  @Override
+  public void removedService(final ServiceReference<Servlet> reference,
+      final ServiceReference<Servlet> service) {
+    // The removed reference is not tracked anymore when this method is called
+    available = size() > 0;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+/**
+ * Caches the position of the capabilities within their bundle revision. The position is part of
+ * the node id of bundle capabilities.
+ */
+class BundleCapabilityIndexCache {
+
+  /**
+   * The capability positions of one bundle revision.
+   */
+  private static class BundleRevisionEntry {
+
+    final BundleRevision bundleRevision;
+
+    final Map<Capability, Integer> indexByCapability;
+
+    BundleRevisionEntry(final BundleRevision bundleRevision) {
+      this.bundleRevision = bundleRevision;
+      List<Capability> capabilities = bundleRevision.getCapabilities(null);
+      indexByCapability = new IdentityHashMap<>(capabilities.size());
+      int i = 0;
+      for (Capability capability : capabilities) {
+        if (!indexByCapability.containsKey(capability)) {
+          indexByCapability.put(capability, i);
+        }
+        i++;
+      }
+    }
+  }
+
+  private final Map<Long, BundleRevisionEntry> entriesByBundleId = new ConcurrentHashMap<>();
+
+  /**
+   * Drops the capability positions of a bundle. Should be called when the bundle is resolved,
+   * unresolved, updated or uninstalled.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   */
+  public void evict(final long bundleId) {
+    entriesByBundleId.remove(bundleId);
+  }
+
+  /**
+   * Returns the position of a capability within the capabilities of its bundle revision.
+   *
+   * @param bundleCapability
+   *          The capability.
+   * @return The position of the capability or the number of capabilities of the revision if the
+   *         capability is not found.
+   */
+  public int getIndex(final BundleCapability bundleCapability) {
+    BundleRevision bundleRevision = bundleCapability.getRevision();
+    long bundleId = bundleRevision.getBundle().getBundleId();
+    BundleRevisionEntry entry = entriesByBundleId.get(bundleId);
+    if ((entry == null) || (entry.bundleRevision != bundleRevision)) {
+      entry = new BundleRevisionEntry(bundleRevision);
+      entriesByBundleId.put(bundleId, entry);
+    }
+
+    Integer index = entry.indexByCapability.get(bundleCapability);
+    if (index == null) {
+      return entry.indexByCapability.size();
+    }
+    return index;
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes the graph in a compact format. Every string (node ids, attribute keys and values, enum
+ * names) is written only once into a string table and referenced by its index everywhere else.
+ * The nodes are referenced by the index of their id in the string table. The fields of the nodes
+ * are written in columns, so field names are not repeated for every node.
+ *
+ * <p>
+ * Missing strings are referenced by <code>-1</code>. Attribute values are a string index or an
+ * array of string indexes. The requirements of a component are written as a flat array of
+ * <i>requirementId, acceptedCapabilityType, capabilityNodeId, clause, satisfactionState</i>
+ * tuples.
+ */
+final class CompactGraphWriter {
+
+  public static final String FORMAT_NAME = "compact";
+
+  private static final int NO_STRING = -1;
+
+  private final JsonWriter out;
+
+  private final Map<String, Integer> stringIndexes = new HashMap<>();
+
+  private final List<String> strings = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param out
+   *          The writer that the graph is written to.
+   */
+  CompactGraphWriter(final JsonWriter out) {
+    this.out = out;
+  }
+
+  private int intern(final Object value) {
+    if (value == null) {
+      return NO_STRING;
+    }
+    String stringValue = String.valueOf(value);
+    Integer index = stringIndexes.get(stringValue);
+    if (index == null) {
+      index = strings.size();
+      strings.add(stringValue);
+      stringIndexes.put(stringValue, index);
+    }
+    return index;
+  }
+
+  /**
+   * Writes the graph.
+   *
+   * @param graph
+   *          The graph.
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void write(final ECMGraphDTO graph) throws IOException {
+    out.beginObject();
+    out.name("format").value(FORMAT_NAME);
+    out.name("generation").value(graph.generation);
+
+    out.name("components").beginObject();
+    writeComponentColumns(graph.components);
+    out.endObject();
+
+    out.name("capabilities").beginObject();
+    writeCapabilityColumns(graph.capabilities);
+    out.endObject();
+
+    // The string table is written at the end, so it can be built while the columns are streamed
+    out.name("strings").beginArray();
+    for (String string : strings) {
+      out.value(string);
+    }
+    out.endArray();
+
+    out.endObject();
+    out.flush();
+  }
+
+  private void writeAttributeValue(final Object value) throws IOException {
+    if ((value != null) && value.getClass().isArray()) {
+      out.beginArray();
+      int length = Array.getLength(value);
+      for (int i = 0; i < length; i++) {
+        out.value(intern(Array.get(value, i)));
+      }
+      out.endArray();
+    } else {
+      out.value(intern(value));
+    }
+  }
+
+  private void writeCapabilityColumns(final CapabilityNodeDTO[] capabilityNodes)
+      throws IOException {
+
+    out.name("nodeId").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(intern(capabilityNode.nodeId));
+    }
+    out.endArray();
+
+    out.name("capabilityType").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(intern(capabilityNode.capabilityType));
+    }
+    out.endArray();
+
+    out.name("componentNodeId").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(intern(capabilityNode.componentNodeId));
+    }
+    out.endArray();
+
+    out.name("componentState").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(intern(capabilityNode.componentState));
+    }
+    out.endArray();
+
+    out.name("bundleId").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(capabilityNode.bundleId);
+    }
+    out.endArray();
+
+    out.name("guessed").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(capabilityNode.guessed ? 1 : 0);
+    }
+    out.endArray();
+
+    out.name("namespace").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      out.value(intern(capabilityNode.namespace));
+    }
+    out.endArray();
+
+    out.name("directiveKeys").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      writeKeys(capabilityNode.directives);
+    }
+    out.endArray();
+
+    out.name("directiveValues").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      writeValues(capabilityNode.directives);
+    }
+    out.endArray();
+
+    out.name("attributeKeys").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      writeKeys(capabilityNode.attributes);
+    }
+    out.endArray();
+
+    out.name("attributeValues").beginArray();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes) {
+      writeValues(capabilityNode.attributes);
+    }
+    out.endArray();
+  }
+
+  private void writeComponentColumns(final ComponentNodeDTO[] componentNodes)
+      throws IOException {
+
+    out.name("nodeId").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.value(intern(componentNode.nodeId));
+    }
+    out.endArray();
+
+    out.name("name").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.value(intern(componentNode.name));
+    }
+    out.endArray();
+
+    out.name("description").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.value(intern(componentNode.description));
+    }
+    out.endArray();
+
+    out.name("state").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.value(intern(componentNode.state));
+    }
+    out.endArray();
+
+    out.name("configurationPolicy").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.value(intern(componentNode.configurationPolicy));
+    }
+    out.endArray();
+
+    out.name("propertyKeys").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      writeKeys(componentNode.properties);
+    }
+    out.endArray();
+
+    out.name("propertyValues").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      writeValues(componentNode.properties);
+    }
+    out.endArray();
+
+    out.name("requirements").beginArray();
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      out.beginArray();
+      for (ComponentRequirementDTO requirement : componentNode.requirements) {
+        out.value(intern(requirement.requirementId));
+        out.value(intern(requirement.acceptedCapabilityType));
+        out.value(intern(requirement.capabilityNodeId));
+        out.value(intern(requirement.clause));
+        out.value(intern(requirement.satisfactionState));
+      }
+      out.endArray();
+    }
+    out.endArray();
+  }
+
+  private void writeKeys(final Map<String, ?> map) throws IOException {
+    out.beginArray();
+    if (map != null) {
+      for (String key : map.keySet()) {
+        out.value(intern(key));
+      }
+    }
+    out.endArray();
+  }
+
+  private void writeValues(final Map<String, ?> map) throws IOException {
+    out.beginArray();
+    if (map != null) {
+      for (Entry<String, ?> entry : map.entrySet()) {
+        writeAttributeValue(entry.getValue());
+      }
+    }
+    out.endArray();
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.everit.osgi.ecm.component.resource.ComponentRequirement;
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.component.resource.ComponentState;
+
+/**
+ * The part of the ECM graph that is generated from one component container. Fragments are cached
+ * by {@link ECMGraphModel} and regenerated only if the container is touched.
+ */
+final class ContainerGraphFragment {
+
+  /**
+   * Dependency key that is registered by every fragment that has a requirement that accepts bundle
+   * capabilities.
+   */
+  public static final String BUNDLE_REQUIREMENT_KEY = "bundleRequirement";
+
+  /**
+   * Creates the dependency key of a bundle.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   * @return The dependency key.
+   */
+  public static String bundleKey(final long bundleId) {
+    return "bundle." + bundleId;
+  }
+
+  /**
+   * Creates the dependency key of a service interface that is required by a component.
+   *
+   * @param objectClass
+   *          The name of the service interface.
+   * @return The dependency key.
+   */
+  public static String objectClassKey(final String objectClass) {
+    return "objectClass." + objectClass;
+  }
+
+  /**
+   * Capability nodes that were generated for this container, including the wired capabilities of
+   * other components and bundles.
+   */
+  public final Map<String, CapabilityNodeDTO> capabilityNodes = new LinkedHashMap<>();
+
+  /**
+   * Index of the attributes of the capability nodes of this fragment.
+   */
+  public final PropertyIndex capabilityPropertyIndex = new PropertyIndex();
+
+  public final List<ComponentNodeDTO> componentNodes = new ArrayList<>();
+
+  /**
+   * Index of the properties of the component nodes of this fragment. The component nodes of the
+   * assembled graph share their properties with the nodes of the fragment, so the index is valid
+   * for them, too.
+   */
+  public final PropertyIndex componentPropertyIndex = new PropertyIndex();
+
+  /**
+   * Keys of the events that should trigger the regeneration of this fragment.
+   */
+  public final Set<String> dependencyKeys = new HashSet<>();
+
+  public final List<GuessedServiceCapability> guessedServiceCapabilities = new ArrayList<>();
+
+  /**
+   * Ids of the capability nodes that are provided by the components of this container and not only
+   * referenced by their requirements.
+   */
+  public final Set<String> ownCapabilityNodeIds = new HashSet<>();
+
+  public ComponentRevision<?>[] revisions;
+
+  public ComponentState[] states;
+
+  /**
+   * Requirement DTOs that do not have a wire. They are resolved against the guessed service
+   * capabilities of all containers when the graph is assembled.
+   */
+  public final Map<ComponentRequirementDTO, ComponentRequirement<?, ?>> unsatisfiedRequirements =
+      new IdentityHashMap<>();
+
+  /**
+   * Indexes the properties of the generated component nodes and the attributes of the capability
+   * nodes. Called when the generation of the fragment is finished.
+   */
+  public void indexProperties() {
+    for (ComponentNodeDTO componentNode : componentNodes) {
+      componentPropertyIndex.add(componentNode.nodeId, componentNode.properties);
+    }
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes.values()) {
+      capabilityPropertyIndex.add(capabilityNode.nodeId, capabilityNode.attributes);
+    }
+  }
+
+  /**
+   * Checks whether the revisions of the container and their states are the same as they were when
+   * this fragment was generated.
+   *
+   * @param currentRevisions
+   *          The current revisions of the container.
+   * @return <code>true</code> if the fragment is still up-to-date.
+   */
+  public boolean isUpToDate(final ComponentRevision<?>[] currentRevisions) {
+    if (currentRevisions.length != revisions.length) {
+      return false;
+    }
+    for (int i = 0; i < currentRevisions.length; i++) {
+      if ((currentRevisions[i] != revisions[i])
+          || (currentRevisions[i].getState() != states[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
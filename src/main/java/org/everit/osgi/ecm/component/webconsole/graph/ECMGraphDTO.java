@@ -23,4 +23,10 @@ public class ECMGraphDTO {
   public CapabilityNodeDTO[] capabilities;
 
   public ComponentNodeDTO[] components;
+
+  /**
+   * The generation of the graph in <code>epoch-generation</code> form. The epoch changes on every
+   * start of the bundle, so the token can be passed back as the base of a delta request.
+   */
+  public String generation;
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+/**
+ * The changes of the graph since a given generation. Added and changed nodes are passed in full.
+ * The requirement edges of a component are passed together with the component node.
+ */
+public class ECMGraphDeltaDTO {
+
+  public CapabilityNodeDTO[] capabilities;
+
+  public ComponentNodeDTO[] components;
+
+  /**
+   * The generation that the changes lead to, in the same form as {@link ECMGraphDTO#generation}.
+   */
+  public String generation;
+
+  public String[] removedCapabilityNodeIds;
+
+  public String[] removedComponentNodeIds;
+}
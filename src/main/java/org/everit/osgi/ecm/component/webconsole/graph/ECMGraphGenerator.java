@@ -26,9 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.everit.osgi.ecm.component.resource.ComponentContainer;
@@ -36,177 +34,226 @@ import org.everit.osgi.ecm.component.resource.ComponentRequirement;
 import org.everit.osgi.ecm.component.resource.ComponentRevision;
 import org.everit.osgi.ecm.component.resource.ComponentState;
 import org.everit.osgi.ecm.component.webconsole.Clause2StringConverter;
-import org.everit.osgi.ecm.metadata.ComponentMetadata;
-import org.everit.osgi.ecm.metadata.ServiceMetadata;
+import org.everit.osgi.ecm.component.webconsole.FilterCache;
 import org.everit.osgi.linkage.ServiceCapability;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.wiring.BundleCapability;
-import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.resource.Wire;
 import org.osgi.service.metatype.MetaTypeProvider;
 import org.osgi.service.metatype.ObjectClassDefinition;
-import org.osgi.util.tracker.ServiceTracker;
 
 /**
- * Generates an ECM Graph that can be rendered.
+ * Generates the fragments of an ECM Graph that can be rendered.
  */
 public final class ECMGraphGenerator {
 
   /**
-   * A service capability that is not wired, but it would be if the component was active.
+   * Generates the fragment of the ECM graph that belongs to one component container.
+   *
+   * @param serviceReference
+   *          The reference of the {@link ComponentContainer} service.
+   * @param componentContainer
+   *          The component container.
+   * @param guessedServiceClassCache
+   *          The cache of the service interfaces that the components would provide.
+   * @param bundleCapabilityIndexCache
+   *          The cache of the capability positions that are used in bundle capability node ids.
+   * @return The graph fragment of the container.
    */
-  private static class GuessedServiceCapability {
-    public String nodeId;
-
-    Set<String> objectclasses;
-
-    Map<String, Object> properties;
+  static ContainerGraphFragment generate(
+      final ServiceReference<ComponentContainer<?>> serviceReference,
+      final ComponentContainer<?> componentContainer,
+      final GuessedServiceClassCache guessedServiceClassCache,
+      final BundleCapabilityIndexCache bundleCapabilityIndexCache) {
+
+    ECMGraphGenerator generator =
+        new ECMGraphGenerator(guessedServiceClassCache, bundleCapabilityIndexCache);
+    return generator.generateFragment(serviceReference, componentContainer);
   }
 
   /**
-   * Generates the ECM graph.
+   * Indexes guessed service capabilities by the service interfaces they would provide. The order of
+   * the capabilities is kept within each objectClass.
    *
-   * @param containerTracker
-   *          Tracks the {@link ComponentContainer}s.
-   * @return The graph.
+   * @param guessedServiceCapabilities
+   *          The guessed service capabilities of all fragments.
+   * @return The capabilities by objectClass.
    */
-  public static ECMGraphDTO generate(
-      final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker,
-      final Filter filter) {
-
-    ECMGraphGenerator generator = new ECMGraphGenerator(containerTracker, filter);
-    return generator.generate();
-  }
-
-  private final Map<String, CapabilityNodeDTO> capabilityNodes = new HashMap<>();
-
-  private final Set<ComponentNodeDTO> componentNodes = new HashSet<>();
-
-  private final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker;
-
-  private Filter filter;
-
-  private final List<GuessedServiceCapability> guessedServiceCapabilities =
-      new ArrayList<>();
-
-  private final Map<BundleCapability, CapabilityNodeDTO> processedBundleCapabilities =
-      new HashMap<>();
-
-  private final Map<ComponentRequirementDTO, ComponentRequirement<?, ?>> unsatisfiedRequirements =
-      new HashMap<>();
-
-  private ECMGraphGenerator(
-      final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker,
-      final Filter filter) {
-    this.containerTracker = containerTracker;
-    this.filter = filter;
+  static Map<String, List<GuessedServiceCapability>> indexGuessedServiceCapabilities(
+      final List<GuessedServiceCapability> guessedServiceCapabilities) {
+
+    Map<String, List<GuessedServiceCapability>> result = new HashMap<>();
+    for (GuessedServiceCapability guessedServiceCapability : guessedServiceCapabilities) {
+      for (String objectClass : guessedServiceCapability.objectclasses) {
+        List<GuessedServiceCapability> candidates = result.get(objectClass);
+        if (candidates == null) {
+          candidates = new ArrayList<>();
+          result.put(objectClass, candidates);
+        }
+        candidates.add(guessedServiceCapability);
+      }
+    }
+    return result;
   }
 
-  private void addImplementedInterfacesToSet(final Class<?> clazz, final Set<String> result) {
-    if (clazz.isInterface()) {
-      result.add(clazz.getName());
-    } else {
-      Class<?> superclass = clazz.getSuperclass();
-      if (superclass != null) {
-        addImplementedInterfacesToSet(superclass, result);
+  /**
+   * Resolves the requirements of a component node that do not have a wire against the guessed
+   * service capabilities of the whole graph. The component node that is stored in the fragment is
+   * not modified, a copy is created instead if the node has unsatisfied requirements.
+   *
+   * @param componentNode
+   *          The component node as it was generated in its fragment.
+   * @param unsatisfiedRequirements
+   *          The unsatisfied requirements of the fragment.
+   * @param guessedServiceCapabilitiesByObjectClass
+   *          The guessed service capabilities of all fragments indexed by
+   *          {@link #indexGuessedServiceCapabilities(List)}.
+   * @param filterCache
+   *          The cache that is used to compile the filter directives of the requirements.
+   * @return The component node with resolved requirements.
+   */
+  static ComponentNodeDTO resolveUnsatisfiedRequirements(final ComponentNodeDTO componentNode,
+      final Map<ComponentRequirementDTO, ComponentRequirement<?, ?>> unsatisfiedRequirements,
+      final Map<String, List<GuessedServiceCapability>> guessedServiceCapabilitiesByObjectClass,
+      final FilterCache filterCache) {
+
+    ComponentRequirementDTO[] requirements = componentNode.requirements;
+    ComponentRequirementDTO[] resolvedRequirements = null;
+    for (int i = 0; i < requirements.length; i++) {
+      ComponentRequirement<?, ?> componentRequirement =
+          unsatisfiedRequirements.get(requirements[i]);
+      if (componentRequirement != null) {
+        if (resolvedRequirements == null) {
+          resolvedRequirements = Arrays.copyOf(requirements, requirements.length);
+        }
+        ComponentRequirementDTO resolvedRequirement = new ComponentRequirementDTO();
+        resolvedRequirement.requirementId = requirements[i].requirementId;
+        resolvedRequirement.clause = requirements[i].clause;
+        processUnsatisfiedRequirement(componentRequirement, resolvedRequirement,
+            guessedServiceCapabilitiesByObjectClass, filterCache);
+        resolvedRequirements[i] = resolvedRequirement;
       }
     }
 
-    Class<?>[] interfaces = clazz.getInterfaces();
-    for (Class<?> interfaze : interfaces) {
-      addImplementedInterfacesToSet(interfaze, result);
+    if (resolvedRequirements == null) {
+      return componentNode;
     }
 
+    ComponentNodeDTO result = new ComponentNodeDTO();
+    result.configurationPolicy = componentNode.configurationPolicy;
+    result.description = componentNode.description;
+    result.name = componentNode.name;
+    result.nodeId = componentNode.nodeId;
+    result.properties = componentNode.properties;
+    result.state = componentNode.state;
+    result.requirements = resolvedRequirements;
+    return result;
   }
 
-  private boolean addServiceInstanceClassesToServiceSet(final ServiceMetadata service,
-      final Set<Set<String>> result, final ComponentMetadata componentMetadata,
-      final ClassLoader componentClassLoader, final boolean pEmptyClassArrayProcessed) {
-    boolean emptyClassArrayProcessed = pEmptyClassArrayProcessed;
-    String[] clazzNames = service.getClazzes();
-    Set<String> serviceInterfaces = new LinkedHashSet<>();
-    if (clazzNames.length == 0) {
-      String componentType = componentMetadata.getType();
-      Class<?> componentClass;
-      try {
-        componentClass = componentClassLoader.loadClass(componentType);
-      } catch (ClassNotFoundException e) {
-        throw new RuntimeException("The class " + componentType
-            + " cannot be loaded by the classloader of the bundle of the component: "
-            + componentClassLoader, e);
-      }
-      addImplementedInterfacesToSet(componentClass, serviceInterfaces);
+  private static String findGuessedServiceCapability(
+      final ComponentRequirement<?, ?> componentRequirement,
+      final Map<String, List<GuessedServiceCapability>> guessedServiceCapabilitiesByObjectClass,
+      final FilterCache filterCache) {
 
-      // No interface is implemented and defined, so add the type of the class
-      if (serviceInterfaces.size() == 0) {
-        serviceInterfaces.add(componentClass.getName());
-      }
-      emptyClassArrayProcessed = true;
-    } else {
-      serviceInterfaces.addAll(Arrays.asList(clazzNames));
+    String objectClass = componentRequirement.getDirectives().get(Constants.OBJECTCLASS);
+    List<GuessedServiceCapability> candidates =
+        guessedServiceCapabilitiesByObjectClass.get(objectClass);
+    if (candidates == null) {
+      return null;
     }
-    result.add(serviceInterfaces);
-    return emptyClassArrayProcessed;
-  }
 
-  private String findGuessedServiceCapability(
-      final ComponentRequirement<?, ?> componentRequirement) {
+    String filterString = componentRequirement.getDirectives().get(Constants.FILTER_DIRECTIVE);
+    if (filterString == null) {
+      return candidates.get(0).nodeId;
+    }
 
-    Iterator<GuessedServiceCapability> iterator = guessedServiceCapabilities.iterator();
+    Filter filter;
+    try {
+      filter = filterCache.getFilter(filterString);
+    } catch (InvalidSyntaxException e) {
+      return null;
+    }
 
+    Iterator<GuessedServiceCapability> iterator = candidates.iterator();
     String capabilityNodeId = null;
     while ((capabilityNodeId == null) && iterator.hasNext()) {
       GuessedServiceCapability guessedServiceCapability = iterator.next();
-      String objectClass = componentRequirement.getDirectives().get(Constants.OBJECTCLASS);
-      if (guessedServiceCapability.objectclasses.contains(objectClass)) {
-        String filterString = componentRequirement.getDirectives().get(Constants.FILTER_DIRECTIVE);
-        if (filterString == null) {
-          capabilityNodeId = guessedServiceCapability.nodeId;
-        } else {
-          try {
-            Filter filter = FrameworkUtil.createFilter(filterString);
-            if (filter.matches(guessedServiceCapability.properties)) {
-              capabilityNodeId = guessedServiceCapability.nodeId;
-            }
-          } catch (InvalidSyntaxException e) {
-            capabilityNodeId = null;
-          }
-        }
+      if (filter.matches(guessedServiceCapability.properties)) {
+        capabilityNodeId = guessedServiceCapability.nodeId;
       }
     }
     return capabilityNodeId;
   }
 
-  private ECMGraphDTO generate() {
-    SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> trackedContainers =
-        containerTracker.getTracked();
-
-    for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> trackedContainer : trackedContainers // CS_DISABLE_LINE_LENGTH
-        .entrySet()) {
-      ServiceReference<ComponentContainer<?>> serviceReference = trackedContainer.getKey();
-      ComponentContainer<?> componentContainer = trackedContainer.getValue();
-      ComponentRevision<?>[] componentRevisions = componentContainer.getResources();
-      for (ComponentRevision<?> componentRevision : componentRevisions) {
-        processComponentRevision(componentRevision,
-            ComponentNodeIdBaseData.createByServiceRef(serviceReference));
+  private static void processUnsatisfiedRequirement(
+      final ComponentRequirement<?, ?> componentRequirement,
+      final ComponentRequirementDTO componentRequirementDTO,
+      final Map<String, List<GuessedServiceCapability>> guessedServiceCapabilitiesByObjectClass,
+      final FilterCache filterCache) {
+
+    Class<?> acceptedCapabilityType = componentRequirement.getAcceptedCapabilityType();
+    if (acceptedCapabilityType.equals(BundleCapability.class)) {
+      componentRequirementDTO.acceptedCapabilityType = CapabilityType.BUNDLE_CAPABILITY;
+      componentRequirementDTO.satisfactionState = SatisfactionState.UNSATISFIED;
+    } else if (acceptedCapabilityType.equals(ServiceCapability.class)) {
+      componentRequirementDTO.acceptedCapabilityType = CapabilityType.SERVICE;
+
+      String capabilityNodeId =
+          findGuessedServiceCapability(componentRequirement,
+              guessedServiceCapabilitiesByObjectClass, filterCache);
+      if (capabilityNodeId != null) {
+        componentRequirementDTO.capabilityNodeId = capabilityNodeId;
+        componentRequirementDTO.satisfactionState = SatisfactionState.GUESSED;
+      } else {
+        componentRequirementDTO.satisfactionState = SatisfactionState.UNSATISFIED;
       }
     }
+  }
 
-    processUnsatisfiedRequirements();
+  private final BundleCapabilityIndexCache bundleCapabilityIndexCache;
 
-    ECMGraphDTO graph = new ECMGraphDTO();
-    graph.components = componentNodes.toArray(new ComponentNodeDTO[componentNodes.size()]);
+  private ContainerGraphFragment fragment;
 
-    graph.capabilities =
-        capabilityNodes.values().toArray(new CapabilityNodeDTO[capabilityNodes.size()]);
+  private final GuessedServiceClassCache guessedServiceClassCache;
 
-    return graph;
+  private final Map<BundleCapability, CapabilityNodeDTO> processedBundleCapabilities =
+      new HashMap<>();
+
+  private ECMGraphGenerator(final GuessedServiceClassCache guessedServiceClassCache,
+      final BundleCapabilityIndexCache bundleCapabilityIndexCache) {
+    this.guessedServiceClassCache = guessedServiceClassCache;
+    this.bundleCapabilityIndexCache = bundleCapabilityIndexCache;
+  }
+
+  private ContainerGraphFragment generateFragment(
+      final ServiceReference<ComponentContainer<?>> serviceReference,
+      final ComponentContainer<?> componentContainer) {
+
+    fragment = new ContainerGraphFragment();
+    ComponentNodeIdBaseData componentNodeIdBaseData =
+        ComponentNodeIdBaseData.createByServiceRef(serviceReference);
+    if (componentNodeIdBaseData != null) {
+      fragment.dependencyKeys.add(resolveComponentNodeId(componentNodeIdBaseData, null));
+    }
+
+    ComponentRevision<?>[] componentRevisions = componentContainer.getResources();
+    ComponentState[] states = new ComponentState[componentRevisions.length];
+    for (int i = 0; i < componentRevisions.length; i++) {
+      states[i] = componentRevisions[i].getState();
+    }
+    fragment.revisions = componentRevisions;
+    fragment.states = states;
+
+    for (ComponentRevision<?> componentRevision : componentRevisions) {
+      processComponentRevision(componentRevision, componentNodeIdBaseData);
+    }
+    fragment.indexProperties();
+    return fragment;
   }
 
   private CapabilityNodeDTO processBundleCapability(final BundleCapability bundleCapability) {
@@ -216,13 +263,15 @@ public final class ECMGraphGenerator {
     }
     result = new CapabilityNodeDTO();
     result.nodeId = "bundleCapability." + bundleCapability.getRevision().getBundle().getBundleId()
-        + resolveIndexOfBundleCapability(bundleCapability);
+        + bundleCapabilityIndexCache.getIndex(bundleCapability);
     result.capabilityType = CapabilityType.BUNDLE_CAPABILITY;
     result.namespace = bundleCapability.getNamespace();
     result.attributes = new AttributeMap(bundleCapability.getAttributes());
     result.directives = Collections.emptyMap();
     result.bundleId = bundleCapability.getRevision().getBundle().getBundleId();
 
+    fragment.dependencyKeys.add(ContainerGraphFragment.bundleKey(result.bundleId));
+    processedBundleCapabilities.put(bundleCapability, result);
     putCapabilityNode(result);
     return result;
   }
@@ -242,6 +291,7 @@ public final class ECMGraphGenerator {
             processServiceReference(serviceReference);
         capabilityNodeDTO.componentState = componentState;
         capabilityNodeDTO.guessed = false;
+        fragment.ownCapabilityNodeIds.add(capabilityNodeDTO.nodeId);
 
         Set<String> serviceClasses = new LinkedHashSet<>();
         String[] objectClass = (String[]) serviceReference.getProperty(Constants.OBJECTCLASS);
@@ -251,12 +301,8 @@ public final class ECMGraphGenerator {
     }
 
     if (componentState != ComponentState.ACTIVE) {
-      ComponentMetadata componentMetadata =
-          componentRevision.getComponentContainer().getComponentMetadata();
-
       Set<Set<String>> guessedServiceInstanceClasses =
-          resolveGuessedServiceClasses(componentMetadata, componentRevision
-              .getDeclaringResource().getBundle().adapt(BundleWiring.class).getClassLoader());
+          guessedServiceClassCache.getGuessedServiceClasses(componentRevision);
 
       int guessedServiceCounter = 0;
       for (Set<String> serviceClasses : guessedServiceInstanceClasses) {
@@ -286,12 +332,13 @@ public final class ECMGraphGenerator {
 
           capabilityNode.capabilityType = CapabilityType.SERVICE;
           putCapabilityNode(capabilityNode);
+          fragment.ownCapabilityNodeIds.add(capabilityNode.nodeId);
 
           GuessedServiceCapability guessedserviceCapability = new GuessedServiceCapability();
           guessedserviceCapability.objectclasses = serviceClasses;
           guessedserviceCapability.properties = attributes;
           guessedserviceCapability.nodeId = capabilityNode.nodeId;
-          guessedServiceCapabilities.add(guessedserviceCapability);
+          fragment.guessedServiceCapabilities.add(guessedserviceCapability);
         }
       }
     }
@@ -310,8 +357,18 @@ public final class ECMGraphGenerator {
         new Clause2StringConverter().convertClauseToString(componentRequirement.getNamespace(),
             componentRequirement.getAttributes(), componentRequirement.getDirectives());
 
+    Class<?> acceptedCapabilityType = componentRequirement.getAcceptedCapabilityType();
+    if (acceptedCapabilityType.equals(BundleCapability.class)) {
+      fragment.dependencyKeys.add(ContainerGraphFragment.BUNDLE_REQUIREMENT_KEY);
+    } else {
+      String objectClass = componentRequirement.getDirectives().get(Constants.OBJECTCLASS);
+      if (objectClass != null) {
+        fragment.dependencyKeys.add(ContainerGraphFragment.objectClassKey(objectClass));
+      }
+    }
+
     if (wires.length == 0) {
-      unsatisfiedRequirements.put(result, componentRequirement);
+      fragment.unsatisfiedRequirements.put(result, componentRequirement);
     } else {
       result.satisfactionState = SatisfactionState.SATISFIED;
       Wire wire = wires[0];
@@ -319,17 +376,11 @@ public final class ECMGraphGenerator {
       if (capability instanceof ServiceCapability) {
         result.acceptedCapabilityType = CapabilityType.SERVICE;
         ServiceCapability serviceCapability = (ServiceCapability) capability;
-        if (filter != null && !filter.matches(serviceCapability.getAttributes())) {
-          return null;
-        }
         result.capabilityNodeId =
             processServiceReference(serviceCapability.getServiceReference()).nodeId;
       } else if (capability instanceof BundleCapability) {
         result.acceptedCapabilityType = CapabilityType.BUNDLE_CAPABILITY;
         BundleCapability bundleCapability = (BundleCapability) capability;
-        if (filter != null && !filter.matches(bundleCapability.getAttributes())) {
-          return null;
-        }
         result.capabilityNodeId = processBundleCapability(bundleCapability).nodeId;
       }
     }
@@ -345,12 +396,7 @@ public final class ECMGraphGenerator {
     for (Requirement requirement : requirements) {
       if (requirement instanceof ComponentRequirement) {
         ComponentRequirement<?, ?> componentRequirement = (ComponentRequirement<?, ?>) requirement;
-        ComponentRequirementDTO componentRequirementDTO =
-            processComponentRequirement(componentRequirement);
-
-        if (componentRequirementDTO != null) {
-          result.add(componentRequirementDTO);
-        }
+        result.add(processComponentRequirement(componentRequirement));
       }
     }
     return result.toArray(new ComponentRequirementDTO[result.size()]);
@@ -381,20 +427,18 @@ public final class ECMGraphGenerator {
 
     processComponentCapabilities(componentRevision, componentNodeIdBaseData);
 
-    if ((filter == null) || (filter.matches(componentNode.properties))) {
-      componentNode.requirements =
-          processComponentRequirements(componentRevision);
-      componentNodes.add(componentNode);
-    }
+    componentNode.requirements = processComponentRequirements(componentRevision);
+    fragment.componentNodes.add(componentNode);
   }
 
   private CapabilityNodeDTO processServiceReference(final ServiceReference<?> serviceReference) {
     Object serviceId = String.valueOf(serviceReference.getProperty(Constants.SERVICE_ID));
     String nodeId = "service." + serviceId;
-    CapabilityNodeDTO capabilityNode = capabilityNodes.get(nodeId);
+    CapabilityNodeDTO capabilityNode = fragment.capabilityNodes.get(nodeId);
     if (capabilityNode != null) {
       return capabilityNode;
     }
+    fragment.dependencyKeys.add(nodeId);
 
     capabilityNode = new CapabilityNodeDTO();
     capabilityNode.nodeId = nodeId;
@@ -416,42 +460,21 @@ public final class ECMGraphGenerator {
     return capabilityNode;
   }
 
-  private void processUnsatisfiedRequirement(final ComponentRequirement<?, ?> componentRequirement,
-      final ComponentRequirementDTO componentRequirementDTO) {
-
-    Class<?> acceptedCapabilityType = componentRequirement.getAcceptedCapabilityType();
-    if (acceptedCapabilityType.equals(BundleCapability.class)) {
-      componentRequirementDTO.acceptedCapabilityType = CapabilityType.BUNDLE_CAPABILITY;
-      componentRequirementDTO.satisfactionState = SatisfactionState.UNSATISFIED;
-    } else if (acceptedCapabilityType.equals(ServiceCapability.class)) {
-      componentRequirementDTO.acceptedCapabilityType = CapabilityType.SERVICE;
-
-      String capabilityNodeId = findGuessedServiceCapability(componentRequirement);
-      if (capabilityNodeId != null) {
-        componentRequirementDTO.capabilityNodeId = capabilityNodeId;
-        componentRequirementDTO.satisfactionState = SatisfactionState.GUESSED;
-      } else {
-        componentRequirementDTO.satisfactionState = SatisfactionState.UNSATISFIED;
-      }
-    }
-  }
-
-  private void processUnsatisfiedRequirements() {
-    Set<Entry<ComponentRequirementDTO, ComponentRequirement<?, ?>>> entrySet =
-        unsatisfiedRequirements.entrySet();
-
-    for (Entry<ComponentRequirementDTO, ComponentRequirement<?, ?>> entry : entrySet) {
-      processUnsatisfiedRequirement(entry.getValue(), entry.getKey());
-    }
-  }
-
   private void putCapabilityNode(final CapabilityNodeDTO result) {
-    if ((filter == null) || (filter.matches(result.attributes))) {
-      capabilityNodes.put(result.nodeId, result);
-    }
+    fragment.capabilityNodes.put(result.nodeId, result);
   }
 
-  private String resolveComponentNodeId(final ComponentNodeIdBaseData componentNodeIdBaseData,
+  /**
+   * Resolves the id of a component node. The id without service PID is also used as the dependency
+   * key of the component container in {@link ContainerGraphFragment}.
+   *
+   * @param componentNodeIdBaseData
+   *          The base data of the id that is calculated from the service properties.
+   * @param servicePid
+   *          The service PID of the component or <code>null</code>.
+   * @return The id of the component node or <code>null</code> if there is no base data.
+   */
+  static String resolveComponentNodeId(final ComponentNodeIdBaseData componentNodeIdBaseData,
       final Object servicePid) {
     if (componentNodeIdBaseData == null) {
       return null;
@@ -465,43 +488,4 @@ public final class ECMGraphGenerator {
     }
     return sb.toString();
   }
-
-  private Set<Set<String>> resolveGuessedServiceClasses(final ComponentMetadata componentMetadata,
-      final ClassLoader componentClassLoader) {
-
-    Set<Set<String>> result = new LinkedHashSet<>();
-    ServiceMetadata service = componentMetadata.getService();
-
-    boolean emptyClassArrayProcessed = false;
-
-    if (service != null) {
-      emptyClassArrayProcessed =
-          addServiceInstanceClassesToServiceSet(service, result, componentMetadata,
-              componentClassLoader, false);
-    }
-
-    ServiceMetadata[] manualServices = componentMetadata.getManualServices();
-    for (ServiceMetadata manualService : manualServices) {
-      addServiceInstanceClassesToServiceSet(manualService, result, componentMetadata,
-          componentClassLoader, emptyClassArrayProcessed);
-    }
-
-    return result;
-  }
-
-  private int resolveIndexOfBundleCapability(final BundleCapability bundleCapability) {
-    List<Capability> capabilities = bundleCapability.getRevision().getCapabilities(null);
-    int result = -1;
-    int i = 0;
-    Iterator<Capability> iterator = capabilities.iterator();
-    while ((result == -1) && iterator.hasNext()) {
-      Capability capability = iterator.next();
-      if (capability.equals(bundleCapability)) {
-        result = i;
-      } else {
-        i++;
-      }
-    }
-    return i;
-  }
 }
@@ -0,0 +1,879 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.osgi.ecm.component.ECMComponentConstants;
+import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.webconsole.ComponentContainerIndex;
+import org.everit.osgi.ecm.component.webconsole.FilterCache;
+import org.everit.osgi.ecm.component.webconsole.metrics.Histogram;
+import org.everit.osgi.ecm.component.webconsole.metrics.HistogramSnapshot;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Long-lived model of the ECM graph. The graph fragment of each component container is cached and
+ * regenerated only if a service or bundle event touched the container or the revisions of the
+ * container changed their state. The graph is assembled from the fragments only if at least one of
+ * them changed.
+ *
+ * <p>
+ * Event listeners only collect the keys of the touched entities, as events may be delivered
+ * synchronously while the ECM implementation holds its own locks. The collected keys are processed
+ * when the graph is requested next time.
+ */
+public class ECMGraphModel implements AllServiceListener, BundleListener {
+
+  /**
+   * The number of change sets that are kept to be able to answer delta requests.
+   */
+  private static final int MAX_CHANGE_LOG_SIZE = 100;
+
+  /**
+   * In case more keys are collected between two graph requests, all fragments are regenerated.
+   */
+  private static final int MAX_PENDING_KEYS = 10000;
+
+  private final BundleCapabilityIndexCache bundleCapabilityIndexCache =
+      new BundleCapabilityIndexCache();
+
+  private final BundleContext bundleContext;
+
+  private Map<String, CapabilityNodeDTO> capabilityNodes = Collections.emptyMap();
+
+  /**
+   * The capability attribute indexes of the fragments of the current graph.
+   */
+  private List<PropertyIndex> capabilityPropertyIndexes = Collections.emptyList();
+
+  private final Deque<GraphChangeSet> changeLog = new ArrayDeque<>();
+
+  private Map<String, ComponentNodeDTO> componentNodesById = Collections.emptyMap();
+
+  /**
+   * The component property indexes of the fragments of the current graph.
+   */
+  private List<PropertyIndex> componentPropertyIndexes = Collections.emptyList();
+
+  private final ComponentContainerIndex containerIndex;
+
+  private final Map<String, Set<ServiceReference<ComponentContainer<?>>>> dependentContainers =
+      new HashMap<>();
+
+  /**
+   * Differs on every start of the bundle, so clients cannot mix up generations of different runs.
+   */
+  private final long epoch = System.currentTimeMillis();
+
+  private final FilterCache filterCache;
+
+  private final Map<ServiceReference<ComponentContainer<?>>, ContainerGraphFragment> fragments =
+      new HashMap<>();
+
+  private volatile boolean fullRefreshRequested = false;
+
+  private long generation = 0;
+
+  /**
+   * The time of the refreshes that regenerated at least one fragment, in microseconds.
+   */
+  private final Histogram generationTime = new Histogram();
+
+  private ECMGraphDTO graph;
+
+  private final GuessedServiceClassCache guessedServiceClassCache =
+      new GuessedServiceClassCache();
+
+  private Set<String> ownCapabilityNodeIds = Collections.emptySet();
+
+  /**
+   * The ids of the capability nodes that belong to a component node. Used to walk the graph from
+   * the components to their capabilities.
+   */
+  private Map<String, List<String>> ownCapabilityNodeIdsByComponentNodeId =
+      Collections.emptyMap();
+
+  private final Set<String> pendingKeys =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * The ids of the component nodes that have a requirement wired to a capability node. Used to
+   * walk the graph from the capabilities to the requiring components.
+   */
+  private Map<String, List<String>> requiringComponentNodeIdsByCapabilityNodeId =
+      Collections.emptyMap();
+
+  /**
+   * Constructor.
+   *
+   * @param bundleContext
+   *          The context of the bundle that contains this webconsole plugin.
+   * @param containerIndex
+   *          The index that holds the snapshot of all tracked {@link ComponentContainer}s.
+   * @param filterCache
+   *          The cache of the compiled requirement filters.
+   */
+  public ECMGraphModel(final BundleContext bundleContext,
+      final ComponentContainerIndex containerIndex, final FilterCache filterCache) {
+    this.bundleContext = bundleContext;
+    this.containerIndex = containerIndex;
+    this.filterCache = filterCache;
+  }
+
+  private static void addToMultiMap(final Map<String, List<String>> multiMap, final String key,
+      final String value) {
+    List<String> values = multiMap.get(key);
+    if (values == null) {
+      values = new ArrayList<>(1);
+      multiMap.put(key, values);
+    }
+    values.add(value);
+  }
+
+  /**
+   * Compares the attributes of two nodes. The nodes that are generated from the same fragment share
+   * their attribute maps, so the entries are compared only if a fragment was regenerated.
+   */
+  private static boolean hasSameAttributes(final Map<String, ?> previous,
+      final Map<String, ?> current) {
+    if (previous == current) {
+      return true;
+    }
+    if ((previous == null) || (current == null) || (previous.size() != current.size())) {
+      return false;
+    }
+    for (Entry<String, ?> entry : previous.entrySet()) {
+      String key = entry.getKey();
+      if (!current.containsKey(key) || !Objects.deepEquals(entry.getValue(), current.get(key))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean hasSameContent(final CapabilityNodeDTO previous,
+      final CapabilityNodeDTO current) {
+    if (previous == current) {
+      return true;
+    }
+    if (previous == null) {
+      return false;
+    }
+    return (previous.capabilityType == current.capabilityType)
+        && (previous.componentState == current.componentState)
+        && (previous.guessed == current.guessed)
+        && Objects.equals(previous.bundleId, current.bundleId)
+        && Objects.equals(previous.componentNodeId, current.componentNodeId)
+        && Objects.equals(previous.namespace, current.namespace)
+        && Objects.equals(previous.directives, current.directives)
+        && hasSameAttributes(previous.attributes, current.attributes);
+  }
+
+  /**
+   * Compares two versions of a component node. The nodes of the unchanged fragments are copied
+   * only if they have unsatisfied requirements, so the copies are compared field by field without
+   * serializing them.
+   */
+  private static boolean hasSameContent(final ComponentNodeDTO previous,
+      final ComponentNodeDTO current) {
+    if (previous == current) {
+      return true;
+    }
+    if (previous == null) {
+      return false;
+    }
+    return (previous.state == current.state)
+        && (previous.configurationPolicy == current.configurationPolicy)
+        && Objects.equals(previous.name, current.name)
+        && Objects.equals(previous.description, current.description)
+        && hasSameRequirements(previous.requirements, current.requirements)
+        && hasSameAttributes(previous.properties, current.properties);
+  }
+
+  private static boolean hasSameRequirements(final ComponentRequirementDTO[] previous,
+      final ComponentRequirementDTO[] current) {
+    if (previous.length != current.length) {
+      return false;
+    }
+    for (int i = 0; i < previous.length; i++) {
+      ComponentRequirementDTO previousRequirement = previous[i];
+      ComponentRequirementDTO currentRequirement = current[i];
+      if ((previousRequirement != currentRequirement)
+          && ((previousRequirement.satisfactionState != currentRequirement.satisfactionState)
+              || (previousRequirement.acceptedCapabilityType
+                  != currentRequirement.acceptedCapabilityType)
+              || !Objects.equals(previousRequirement.capabilityNodeId,
+                  currentRequirement.capabilityNodeId)
+              || !Objects.equals(previousRequirement.requirementId,
+                  currentRequirement.requirementId)
+              || !Objects.equals(previousRequirement.clause, currentRequirement.clause))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void addPendingKey(final String key) {
+    if (fullRefreshRequested) {
+      return;
+    }
+    pendingKeys.add(key);
+    if (pendingKeys.size() > MAX_PENDING_KEYS) {
+      fullRefreshRequested = true;
+      pendingKeys.clear();
+    }
+  }
+
+  private void assemble(
+      final SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> tracked) {
+
+    Map<String, CapabilityNodeDTO> newCapabilityNodes = new LinkedHashMap<>();
+    Set<String> newOwnCapabilityNodeIds = new HashSet<>();
+    List<GuessedServiceCapability> guessedServiceCapabilities = new ArrayList<>();
+    List<ContainerGraphFragment> orderedFragments = new ArrayList<>(tracked.size());
+    List<PropertyIndex> newComponentPropertyIndexes = new ArrayList<>(tracked.size());
+    List<PropertyIndex> newCapabilityPropertyIndexes = new ArrayList<>(tracked.size());
+
+    for (ServiceReference<ComponentContainer<?>> serviceReference : tracked.keySet()) {
+      ContainerGraphFragment fragment = fragments.get(serviceReference);
+      orderedFragments.add(fragment);
+      newComponentPropertyIndexes.add(fragment.componentPropertyIndex);
+      newCapabilityPropertyIndexes.add(fragment.capabilityPropertyIndex);
+      for (CapabilityNodeDTO capabilityNode : fragment.capabilityNodes.values()) {
+        // The node that is generated by the owner component knows the state of the component
+        if (fragment.ownCapabilityNodeIds.contains(capabilityNode.nodeId)
+            || !newCapabilityNodes.containsKey(capabilityNode.nodeId)) {
+          newCapabilityNodes.put(capabilityNode.nodeId, capabilityNode);
+        }
+      }
+      newOwnCapabilityNodeIds.addAll(fragment.ownCapabilityNodeIds);
+      guessedServiceCapabilities.addAll(fragment.guessedServiceCapabilities);
+    }
+
+    Map<String, List<GuessedServiceCapability>> guessedServiceCapabilitiesByObjectClass =
+        ECMGraphGenerator.indexGuessedServiceCapabilities(guessedServiceCapabilities);
+
+    List<ComponentNodeDTO> componentNodes = new ArrayList<>();
+    Map<String, ComponentNodeDTO> newComponentNodesById = new LinkedHashMap<>();
+    for (ContainerGraphFragment fragment : orderedFragments) {
+      for (ComponentNodeDTO componentNode : fragment.componentNodes) {
+        ComponentNodeDTO resolvedComponentNode =
+            ECMGraphGenerator.resolveUnsatisfiedRequirements(componentNode,
+                fragment.unsatisfiedRequirements, guessedServiceCapabilitiesByObjectClass,
+                filterCache);
+        componentNodes.add(resolvedComponentNode);
+        newComponentNodesById.put(resolvedComponentNode.nodeId, resolvedComponentNode);
+      }
+    }
+
+    if (graph == null) {
+      generation++;
+    } else {
+      GraphChangeSet changeSet = createChangeSet(newComponentNodesById, newCapabilityNodes);
+      if (changeSet.isEmpty()) {
+        return;
+      }
+      generation++;
+      changeSet.generation = generation;
+      changeLog.addLast(changeSet);
+      if (changeLog.size() > MAX_CHANGE_LOG_SIZE) {
+        changeLog.removeFirst();
+      }
+    }
+
+    ECMGraphDTO newGraph = new ECMGraphDTO();
+    newGraph.generation = formatGeneration();
+    newGraph.components = componentNodes.toArray(new ComponentNodeDTO[componentNodes.size()]);
+    newGraph.capabilities =
+        newCapabilityNodes.values().toArray(new CapabilityNodeDTO[newCapabilityNodes.size()]);
+
+    graph = newGraph;
+    capabilityNodes = newCapabilityNodes;
+    componentNodesById = newComponentNodesById;
+    ownCapabilityNodeIds = newOwnCapabilityNodeIds;
+    componentPropertyIndexes = newComponentPropertyIndexes;
+    capabilityPropertyIndexes = newCapabilityPropertyIndexes;
+    indexEdges();
+  }
+
+  @Override
+  public void bundleChanged(final BundleEvent event) {
+    int type = event.getType();
+    if ((type == BundleEvent.RESOLVED) || (type == BundleEvent.UNRESOLVED)
+        || (type == BundleEvent.UPDATED) || (type == BundleEvent.UNINSTALLED)) {
+      long bundleId = event.getBundle().getBundleId();
+      bundleCapabilityIndexCache.evict(bundleId);
+      if ((type == BundleEvent.UPDATED) || (type == BundleEvent.UNINSTALLED)) {
+        guessedServiceClassCache.evict(bundleId);
+      }
+      addPendingKey(ContainerGraphFragment.bundleKey(bundleId));
+      addPendingKey(ContainerGraphFragment.BUNDLE_REQUIREMENT_KEY);
+    }
+  }
+
+  /**
+   * Stops listening to the events of the framework and drops the cached fragments.
+   */
+  public synchronized void close() {
+    bundleContext.removeServiceListener(this);
+    bundleContext.removeBundleListener(this);
+    fragments.clear();
+    dependentContainers.clear();
+    changeLog.clear();
+    graph = null;
+  }
+
+  private GraphChangeSet createChangeSet(final Map<String, ComponentNodeDTO> newComponentNodesById,
+      final Map<String, CapabilityNodeDTO> newCapabilityNodes) {
+
+    GraphChangeSet changeSet = new GraphChangeSet();
+    for (ComponentNodeDTO componentNode : newComponentNodesById.values()) {
+      if (!hasSameContent(componentNodesById.get(componentNode.nodeId), componentNode)) {
+        changeSet.components.put(componentNode.nodeId, componentNode);
+      }
+    }
+    for (String nodeId : componentNodesById.keySet()) {
+      if (!newComponentNodesById.containsKey(nodeId)) {
+        changeSet.removedComponentNodeIds.add(nodeId);
+      }
+    }
+
+    for (CapabilityNodeDTO capabilityNode : newCapabilityNodes.values()) {
+      if (!hasSameContent(capabilityNodes.get(capabilityNode.nodeId), capabilityNode)) {
+        changeSet.capabilities.put(capabilityNode.nodeId, capabilityNode);
+      }
+    }
+    for (String nodeId : capabilityNodes.keySet()) {
+      if (!newCapabilityNodes.containsKey(nodeId)) {
+        changeSet.removedCapabilityNodeIds.add(nodeId);
+      }
+    }
+    return changeSet;
+  }
+
+  private void collectNeighbors(final String nodeId, final Collection<String> neighbors) {
+    ComponentNodeDTO componentNode = componentNodesById.get(nodeId);
+    if (componentNode != null) {
+      for (ComponentRequirementDTO requirement : componentNode.requirements) {
+        if (requirement.capabilityNodeId != null) {
+          neighbors.add(requirement.capabilityNodeId);
+        }
+      }
+      List<String> ownNodeIds = ownCapabilityNodeIdsByComponentNodeId.get(nodeId);
+      if (ownNodeIds != null) {
+        neighbors.addAll(ownNodeIds);
+      }
+      return;
+    }
+
+    CapabilityNodeDTO capabilityNode = capabilityNodes.get(nodeId);
+    if (capabilityNode != null) {
+      if (capabilityNode.componentNodeId != null) {
+        neighbors.add(capabilityNode.componentNodeId);
+      }
+      List<String> requiringNodeIds = requiringComponentNodeIdsByCapabilityNodeId.get(nodeId);
+      if (requiringNodeIds != null) {
+        neighbors.addAll(requiringNodeIds);
+      }
+    }
+  }
+
+  /**
+   * Filters the graph. The indexes of the fragments are optional. If they are passed, only the
+   * candidate nodes that are found by the indexes are checked against the filter.
+   */
+  private ECMGraphDTO filterGraph(final ECMGraphDTO unfilteredGraph,
+      final Map<String, ComponentNodeDTO> componentNodesByNodeId,
+      final Map<String, CapabilityNodeDTO> capabilityNodesById, final Set<String> ownNodeIds,
+      final Collection<PropertyIndex> componentIndexes,
+      final Collection<PropertyIndex> capabilityIndexes, final Filter filter) {
+
+    Collection<ComponentNodeDTO> candidateComponentNodes =
+        Arrays.asList(unfilteredGraph.components);
+    if (componentIndexes != null) {
+      Set<String> candidateNodeIds = PropertyIndex.findCandidates(filter, componentIndexes);
+      if (candidateNodeIds != null) {
+        candidateComponentNodes = new ArrayList<>(candidateNodeIds.size());
+        for (String nodeId : candidateNodeIds) {
+          candidateComponentNodes.add(componentNodesByNodeId.get(nodeId));
+        }
+      }
+    }
+
+    List<ComponentNodeDTO> componentNodes = new ArrayList<>();
+    Set<String> referencedCapabilityNodeIds = new HashSet<>();
+    for (ComponentNodeDTO componentNode : candidateComponentNodes) {
+      if (filter.matches(componentNode.properties)) {
+        componentNodes.add(filterRequirements(componentNode, capabilityNodesById, filter,
+            referencedCapabilityNodeIds));
+      }
+    }
+
+    Collection<CapabilityNodeDTO> candidateCapabilityNodes =
+        Arrays.asList(unfilteredGraph.capabilities);
+    if (capabilityIndexes != null) {
+      Set<String> candidateNodeIds = PropertyIndex.findCandidates(filter, capabilityIndexes);
+      if (candidateNodeIds != null) {
+        candidateCapabilityNodes = new ArrayList<>(candidateNodeIds.size());
+        for (String nodeId : candidateNodeIds) {
+          candidateCapabilityNodes.add(capabilityNodesById.get(nodeId));
+        }
+      }
+    }
+
+    List<CapabilityNodeDTO> capabilityNodeList = new ArrayList<>();
+    for (CapabilityNodeDTO capabilityNode : candidateCapabilityNodes) {
+      if ((ownNodeIds.contains(capabilityNode.nodeId)
+          || referencedCapabilityNodeIds.contains(capabilityNode.nodeId))
+          && filter.matches(capabilityNode.attributes)) {
+        capabilityNodeList.add(capabilityNode);
+      }
+    }
+
+    ECMGraphDTO result = new ECMGraphDTO();
+    result.generation = unfilteredGraph.generation;
+    result.components = componentNodes.toArray(new ComponentNodeDTO[componentNodes.size()]);
+    result.capabilities =
+        capabilityNodeList.toArray(new CapabilityNodeDTO[capabilityNodeList.size()]);
+    return result;
+  }
+
+  private ComponentNodeDTO filterRequirements(final ComponentNodeDTO componentNode,
+      final Map<String, CapabilityNodeDTO> capabilityNodesById, final Filter filter,
+      final Set<String> referencedCapabilityNodeIds) {
+
+    List<ComponentRequirementDTO> requirements = new ArrayList<>();
+    for (ComponentRequirementDTO requirement : componentNode.requirements) {
+      if (requirement.satisfactionState == SatisfactionState.SATISFIED) {
+        CapabilityNodeDTO capabilityNode = capabilityNodesById.get(requirement.capabilityNodeId);
+        if ((capabilityNode == null) || !filter.matches(capabilityNode.attributes)) {
+          continue;
+        }
+        referencedCapabilityNodeIds.add(requirement.capabilityNodeId);
+      }
+      requirements.add(requirement);
+    }
+
+    if (requirements.size() == componentNode.requirements.length) {
+      return componentNode;
+    }
+    return withRequirements(componentNode, requirements);
+  }
+
+  /**
+   * Formats the current generation together with the epoch, so the generations of different
+   * starts of the bundle cannot be mixed up.
+   */
+  private String formatGeneration() {
+    return Long.toHexString(epoch) + '-' + generation;
+  }
+
+  /**
+   * Returns an entity tag that identifies the current generation of the graph. The pending changes
+   * are applied first, so the tag changes if any service or bundle event changed the graph.
+   *
+   * @return The entity tag in quoted form.
+   */
+  public synchronized String getETag() {
+    refresh();
+    return "\"" + formatGeneration() + "\"";
+  }
+
+  /**
+   * Returns the time that the graph generations took. The graph is generated lazily when it is
+   * requested after a change, so only the generations that were triggered by requests are
+   * recorded.
+   *
+   * @return The histogram of the generation times in microseconds.
+   */
+  public HistogramSnapshot getGenerationTime() {
+    return generationTime.createSnapshot();
+  }
+
+  /**
+   * Returns the up-to-date ECM graph. Only the fragments of the touched containers are regenerated.
+   *
+   * @param filter
+   *          Optional filter that is applied on the component properties and capability
+   *          attributes.
+   * @return The graph.
+   */
+  public ECMGraphDTO getGraph(final Filter filter) {
+    ECMGraphDTO currentGraph;
+    Map<String, ComponentNodeDTO> currentComponentNodesById;
+    Map<String, CapabilityNodeDTO> currentCapabilityNodes;
+    Set<String> currentOwnCapabilityNodeIds;
+    List<PropertyIndex> currentComponentPropertyIndexes;
+    List<PropertyIndex> currentCapabilityPropertyIndexes;
+    synchronized (this) {
+      refresh();
+      currentGraph = graph;
+      if (filter == null) {
+        return currentGraph;
+      }
+      currentComponentNodesById = componentNodesById;
+      currentCapabilityNodes = capabilityNodes;
+      currentOwnCapabilityNodeIds = ownCapabilityNodeIds;
+      currentComponentPropertyIndexes = componentPropertyIndexes;
+      currentCapabilityPropertyIndexes = capabilityPropertyIndexes;
+    }
+
+    return filterGraph(currentGraph, currentComponentNodesById, currentCapabilityNodes,
+        currentOwnCapabilityNodeIds, currentComponentPropertyIndexes,
+        currentCapabilityPropertyIndexes, filter);
+  }
+
+  /**
+   * Returns the changes of the unfiltered graph since a given generation. The changes are collected
+   * from a bounded log, so they are only available for the recent generations.
+   *
+   * @param sinceToken
+   *          The generation of the graph that the client has, in the form that was sent in
+   *          {@link ECMGraphDTO#generation}.
+   * @return The changes or <code>null</code> if the requested generation is not available anymore
+   *         or was generated before the last start of the bundle, and the full graph should be
+   *         sent to the client.
+   */
+  public synchronized ECMGraphDeltaDTO getGraphDelta(final String sinceToken) {
+    refresh();
+    String epochPrefix = Long.toHexString(epoch) + '-';
+    if (!sinceToken.startsWith(epochPrefix)) {
+      return null;
+    }
+    String sinceString = sinceToken.substring(epochPrefix.length());
+    if (!sinceString.matches("\\d{1,18}")) {
+      return null;
+    }
+    long since = Long.parseLong(sinceString);
+    if (since > generation) {
+      return null;
+    }
+
+    GraphChangeSet result = new GraphChangeSet();
+    result.generation = generation;
+    if (since == generation) {
+      return result.toDTO(formatGeneration());
+    }
+
+    GraphChangeSet oldestChangeSet = changeLog.peekFirst();
+    if ((oldestChangeSet == null) || (oldestChangeSet.generation > (since + 1))) {
+      return null;
+    }
+
+    for (GraphChangeSet changeSet : changeLog) {
+      if (changeSet.generation > since) {
+        result.merge(changeSet);
+      }
+    }
+    return result.toDTO(formatGeneration());
+  }
+
+  /**
+   * Returns the part of the graph that is reachable from a node by walking the requirement and
+   * capability edges in both directions. Edges that lead out of the neighborhood are dropped.
+   *
+   * @param nodeId
+   *          The id of the component or capability node that is in the center of the neighborhood.
+   * @param depth
+   *          The maximum number of edges between the center node and the nodes of the
+   *          neighborhood.
+   * @param filter
+   *          Optional filter that is applied on the neighborhood in the same way as on the whole
+   *          graph.
+   * @return The neighborhood or <code>null</code> if there is no node with the specified id.
+   */
+  public ECMGraphDTO getNeighborhood(final String nodeId, final int depth,
+      final Filter filter) {
+    ECMGraphDTO neighborhood;
+    Map<String, CapabilityNodeDTO> currentCapabilityNodes;
+    Set<String> currentOwnCapabilityNodeIds;
+    synchronized (this) {
+      refresh();
+      if (!componentNodesById.containsKey(nodeId) && !capabilityNodes.containsKey(nodeId)) {
+        return null;
+      }
+
+      Set<String> reachedNodeIds = new LinkedHashSet<>();
+      reachedNodeIds.add(nodeId);
+      List<String> frontier = Collections.singletonList(nodeId);
+      for (int i = 0; (i < depth) && !frontier.isEmpty(); i++) {
+        List<String> neighbors = new ArrayList<>();
+        for (String frontierNodeId : frontier) {
+          collectNeighbors(frontierNodeId, neighbors);
+        }
+        List<String> nextFrontier = new ArrayList<>();
+        for (String neighbor : neighbors) {
+          if (reachedNodeIds.add(neighbor)) {
+            nextFrontier.add(neighbor);
+          }
+        }
+        frontier = nextFrontier;
+      }
+
+      neighborhood = restrictGraph(reachedNodeIds);
+      currentCapabilityNodes = capabilityNodes;
+      currentOwnCapabilityNodeIds = ownCapabilityNodeIds;
+    }
+
+    if (filter == null) {
+      return neighborhood;
+    }
+    return filterGraph(neighborhood, null, currentCapabilityNodes, currentOwnCapabilityNodeIds,
+        null, null, filter);
+  }
+
+  private void indexEdges() {
+    Map<String, List<String>> newOwnCapabilityNodeIdsByComponentNodeId = new HashMap<>();
+    for (CapabilityNodeDTO capabilityNode : capabilityNodes.values()) {
+      if (capabilityNode.componentNodeId != null) {
+        addToMultiMap(newOwnCapabilityNodeIdsByComponentNodeId, capabilityNode.componentNodeId,
+            capabilityNode.nodeId);
+      }
+    }
+
+    Map<String, List<String>> newRequiringComponentNodeIdsByCapabilityNodeId = new HashMap<>();
+    for (ComponentNodeDTO componentNode : componentNodesById.values()) {
+      for (ComponentRequirementDTO requirement : componentNode.requirements) {
+        if (requirement.capabilityNodeId != null) {
+          addToMultiMap(newRequiringComponentNodeIdsByCapabilityNodeId,
+              requirement.capabilityNodeId, componentNode.nodeId);
+        }
+      }
+    }
+
+    ownCapabilityNodeIdsByComponentNodeId = newOwnCapabilityNodeIdsByComponentNodeId;
+    requiringComponentNodeIdsByCapabilityNodeId = newRequiringComponentNodeIdsByCapabilityNodeId;
+  }
+
+  /**
+   * Starts listening to the service and bundle events of the framework.
+   */
+  public void open() {
+    bundleContext.addServiceListener(this);
+    bundleContext.addBundleListener(this);
+  }
+
+  private void refresh() {
+    long startTime = System.nanoTime();
+    Set<ServiceReference<ComponentContainer<?>>> touchedContainers = new HashSet<>();
+    if (fullRefreshRequested) {
+      fullRefreshRequested = false;
+      pendingKeys.clear();
+      fragments.clear();
+      dependentContainers.clear();
+    } else {
+      Iterator<String> iterator = pendingKeys.iterator();
+      while (iterator.hasNext()) {
+        Set<ServiceReference<ComponentContainer<?>>> containers =
+            dependentContainers.get(iterator.next());
+        iterator.remove();
+        if (containers != null) {
+          touchedContainers.addAll(containers);
+        }
+      }
+    }
+
+    SortedMap<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> tracked =
+        containerIndex.getContainers();
+
+    boolean changed = false;
+    Iterator<Entry<ServiceReference<ComponentContainer<?>>, ContainerGraphFragment>> iterator =
+        fragments.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry<ServiceReference<ComponentContainer<?>>, ContainerGraphFragment> entry =
+          iterator.next();
+      if (!tracked.containsKey(entry.getKey())) {
+        unregisterDependencies(entry.getKey(), entry.getValue());
+        iterator.remove();
+        changed = true;
+      }
+    }
+
+    for (Entry<ServiceReference<ComponentContainer<?>>, ComponentContainer<?>> trackedContainer : tracked // CS_DISABLE_LINE_LENGTH
+        .entrySet()) {
+      ServiceReference<ComponentContainer<?>> serviceReference = trackedContainer.getKey();
+      ComponentContainer<?> componentContainer = trackedContainer.getValue();
+      ContainerGraphFragment fragment = fragments.get(serviceReference);
+      if ((fragment == null) || touchedContainers.contains(serviceReference)
+          || !fragment.isUpToDate(componentContainer.getResources())) {
+
+        ContainerGraphFragment newFragment =
+            ECMGraphGenerator.generate(serviceReference, componentContainer,
+                guessedServiceClassCache, bundleCapabilityIndexCache);
+
+        if (fragment != null) {
+          unregisterDependencies(serviceReference, fragment);
+        }
+        fragments.put(serviceReference, newFragment);
+        registerDependencies(serviceReference, newFragment);
+        changed = true;
+      }
+    }
+
+    if (changed || (graph == null)) {
+      assemble(tracked);
+      generationTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    }
+  }
+
+  private void registerDependencies(final ServiceReference<ComponentContainer<?>> serviceReference,
+      final ContainerGraphFragment fragment) {
+    for (String dependencyKey : fragment.dependencyKeys) {
+      Set<ServiceReference<ComponentContainer<?>>> containers =
+          dependentContainers.get(dependencyKey);
+      if (containers == null) {
+        containers = new HashSet<>();
+        dependentContainers.put(dependencyKey, containers);
+      }
+      containers.add(serviceReference);
+    }
+  }
+
+  /**
+   * Creates a graph that contains only the specified nodes and the edges between them.
+   */
+  private ECMGraphDTO restrictGraph(final Set<String> nodeIds) {
+    List<ComponentNodeDTO> componentNodes = new ArrayList<>();
+    List<CapabilityNodeDTO> capabilityNodeList = new ArrayList<>();
+    for (String nodeId : nodeIds) {
+      ComponentNodeDTO componentNode = componentNodesById.get(nodeId);
+      if (componentNode != null) {
+        componentNodes.add(restrictRequirements(componentNode, nodeIds));
+      } else {
+        CapabilityNodeDTO capabilityNode = capabilityNodes.get(nodeId);
+        if (capabilityNode == null) {
+          continue;
+        }
+        if ((capabilityNode.componentNodeId != null)
+            && !nodeIds.contains(capabilityNode.componentNodeId)) {
+          capabilityNode = withoutComponentNodeId(capabilityNode);
+        }
+        capabilityNodeList.add(capabilityNode);
+      }
+    }
+
+    ECMGraphDTO result = new ECMGraphDTO();
+    result.generation = formatGeneration();
+    result.components = componentNodes.toArray(new ComponentNodeDTO[componentNodes.size()]);
+    result.capabilities =
+        capabilityNodeList.toArray(new CapabilityNodeDTO[capabilityNodeList.size()]);
+    return result;
+  }
+
+  private ComponentNodeDTO restrictRequirements(final ComponentNodeDTO componentNode,
+      final Set<String> nodeIds) {
+
+    List<ComponentRequirementDTO> requirements = new ArrayList<>();
+    for (ComponentRequirementDTO requirement : componentNode.requirements) {
+      if ((requirement.capabilityNodeId == null)
+          || nodeIds.contains(requirement.capabilityNodeId)) {
+        requirements.add(requirement);
+      }
+    }
+
+    if (requirements.size() == componentNode.requirements.length) {
+      return componentNode;
+    }
+    return withRequirements(componentNode, requirements);
+  }
+
+  @Override
+  public void serviceChanged(final ServiceEvent event) {
+    ServiceReference<?> serviceReference = event.getServiceReference();
+    addPendingKey("service." + serviceReference.getProperty(Constants.SERVICE_ID));
+
+    if ((serviceReference
+        .getProperty(ECMComponentConstants.SERVICE_PROP_COMPONENT_ID) != null)
+        && (serviceReference.getBundle() != null)) {
+      addPendingKey(ECMGraphGenerator.resolveComponentNodeId(
+          ComponentNodeIdBaseData.createByServiceRef(serviceReference), null));
+    }
+
+    Object objectClass = serviceReference.getProperty(Constants.OBJECTCLASS);
+    if (objectClass instanceof String[]) {
+      for (String serviceInterface : (String[]) objectClass) {
+        addPendingKey(ContainerGraphFragment.objectClassKey(serviceInterface));
+      }
+    }
+  }
+
+  private void unregisterDependencies(
+      final ServiceReference<ComponentContainer<?>> serviceReference,
+      final ContainerGraphFragment fragment) {
+    for (String dependencyKey : fragment.dependencyKeys) {
+      Set<ServiceReference<ComponentContainer<?>>> containers =
+          dependentContainers.get(dependencyKey);
+      if (containers != null) {
+        containers.remove(serviceReference);
+        if (containers.isEmpty()) {
+          dependentContainers.remove(dependencyKey);
+        }
+      }
+    }
+  }
+
+  private CapabilityNodeDTO withoutComponentNodeId(final CapabilityNodeDTO capabilityNode) {
+    CapabilityNodeDTO result = new CapabilityNodeDTO();
+    result.attributes = capabilityNode.attributes;
+    result.bundleId = capabilityNode.bundleId;
+    result.capabilityType = capabilityNode.capabilityType;
+    result.componentState = capabilityNode.componentState;
+    result.directives = capabilityNode.directives;
+    result.guessed = capabilityNode.guessed;
+    result.namespace = capabilityNode.namespace;
+    result.nodeId = capabilityNode.nodeId;
+    return result;
+  }
+
+  private ComponentNodeDTO withRequirements(final ComponentNodeDTO componentNode,
+      final List<ComponentRequirementDTO> requirements) {
+    ComponentNodeDTO result = new ComponentNodeDTO();
+    result.configurationPolicy = componentNode.configurationPolicy;
+    result.description = componentNode.description;
+    result.name = componentNode.name;
+    result.nodeId = componentNode.nodeId;
+    result.properties = componentNode.properties;
+    result.state = componentNode.state;
+    result.requirements = requirements.toArray(new ComponentRequirementDTO[requirements.size()]);
+    return result;
+  }
+}
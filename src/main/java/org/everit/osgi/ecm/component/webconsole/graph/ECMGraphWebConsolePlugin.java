@@ -16,6 +16,7 @@
 package org.everit.osgi.ecm.component.webconsole.graph;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
@@ -28,26 +29,35 @@ import javax.servlet.http.HttpServletResponse;
 import org.everit.expression.ExpressionCompiler;
 import org.everit.expression.ParserConfiguration;
 import org.everit.expression.jexl.JexlExpressionCompiler;
-import org.everit.osgi.ecm.component.resource.ComponentContainer;
+import org.everit.osgi.ecm.component.webconsole.FilterCache;
+import org.everit.osgi.ecm.component.webconsole.HttpCacheUtil;
 import org.everit.osgi.ecm.component.webconsole.StreamUtil;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestEndpoint;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestMetrics;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestPhase;
+import org.everit.osgi.ecm.component.webconsole.metrics.RequestTiming;
 import org.everit.templating.CompiledTemplate;
 import org.everit.templating.TemplateCompiler;
 import org.everit.templating.html.HTMLTemplateCompiler;
 import org.everit.templating.text.TextTemplateCompiler;
 import org.everit.web.servlet.HttpServlet;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.util.tracker.ServiceTracker;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * A webconsole plugin that draws ECM Components as a graph.
  */
 public class ECMGraphWebConsolePlugin extends HttpServlet {
 
+  /**
+   * The depth of the neighborhood if the node parameter is specified without a depth.
+   */
+  private static final int DEFAULT_NEIGHBORHOOD_DEPTH = 1;
+
   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping()
       .registerTypeAdapter(AttributeMap.class, new AttributeMapTypeAdapter()).create();
 
@@ -79,11 +89,42 @@ public class ECMGraphWebConsolePlugin extends HttpServlet {
         parserConfiguration);
   }
 
-  private final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker;
+  /**
+   * Counts the requirement edges of a graph that point to a capability node.
+   */
+  private static int countEdges(final ECMGraphDTO ecmGraph) {
+    int result = 0;
+    for (ComponentNodeDTO componentNode : ecmGraph.components) {
+      for (ComponentRequirementDTO requirement : componentNode.requirements) {
+        if (requirement.capabilityNodeId != null) {
+          result++;
+        }
+      }
+    }
+    return result;
+  }
+
+  private final FilterCache filterCache;
+
+  private final ECMGraphModel graphModel;
+
+  private final RequestMetrics requestMetrics;
 
-  public ECMGraphWebConsolePlugin(
-      final ServiceTracker<ComponentContainer<?>, ComponentContainer<?>> containerTracker) {
-    this.containerTracker = containerTracker;
+  /**
+   * Constructor.
+   *
+   * @param graphModel
+   *          The model that holds the up-to-date ECM graph.
+   * @param filterCache
+   *          The cache that is used to compile the graphFilter parameter.
+   * @param requestMetrics
+   *          The metrics that the latencies and sizes of the requests are recorded into.
+   */
+  public ECMGraphWebConsolePlugin(final ECMGraphModel graphModel,
+      final FilterCache filterCache, final RequestMetrics requestMetrics) {
+    this.graphModel = graphModel;
+    this.filterCache = filterCache;
+    this.requestMetrics = requestMetrics;
   }
 
   /**
@@ -105,14 +146,100 @@ public class ECMGraphWebConsolePlugin extends HttpServlet {
     return ECMGraphWebConsolePlugin.class.getClassLoader().getResource(resourcePath);
   }
 
-  private void renderGraphJson(final HttpServletResponse resp, final Filter filter)
-      throws IOException {
+  /**
+   * Checks whether the client asked for the compact format of the graph. Deltas are always sent in
+   * the normal format as they are small.
+   */
+  private boolean isCompactFormatRequested(final HttpServletRequest req) {
+    return CompactGraphWriter.FORMAT_NAME.equals(req.getParameter("format"));
+  }
+
+  private void renderGraphJson(final HttpServletRequest req, final HttpServletResponse resp,
+      final Filter filter, final String since, final RequestTiming timing) throws IOException {
+
+    String nodeId = req.getParameter("node");
+    if ((nodeId != null) && !nodeId.isEmpty()) {
+      renderNeighborhoodJson(req, resp, nodeId, filter, timing);
+      return;
+    }
+
+    resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
+    resp.setContentType("application/json");
+
+    if ((filter == null) && (since != null)) {
+      ECMGraphDeltaDTO delta = graphModel.getGraphDelta(since);
+      timing.endPhase(RequestPhase.GENERATION);
+      if (delta != null) {
+        JsonWriter jsonWriter = GSON.newJsonWriter(timing.getWriter(resp));
+        GSON.toJson(delta, ECMGraphDeltaDTO.class, jsonWriter);
+        jsonWriter.flush();
+        timing.endPhase(RequestPhase.SERIALIZATION);
+        return;
+      }
+    }
+
+    ECMGraphDTO ecmGraph = graphModel.getGraph(filter);
+    timing.endPhase(RequestPhase.GENERATION);
+    timing.recordGraphSize(ecmGraph.components.length + ecmGraph.capabilities.length,
+        countEdges(ecmGraph));
+
+    writeGraphJson(ecmGraph, timing.getWriter(resp), isCompactFormatRequested(req));
+    timing.endPhase(RequestPhase.SERIALIZATION);
+  }
+
+  private void renderNeighborhoodJson(final HttpServletRequest req,
+      final HttpServletResponse resp, final String nodeId, final Filter filter,
+      final RequestTiming timing) throws IOException {
+
+    int depth = DEFAULT_NEIGHBORHOOD_DEPTH;
+    String depthParam = req.getParameter("depth");
+    if ((depthParam != null) && !depthParam.isEmpty()) {
+      if (!depthParam.matches("\\d{1,3}")) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid depth: " + depthParam);
+        return;
+      }
+      depth = Integer.parseInt(depthParam);
+    }
+
+    ECMGraphDTO neighborhood = graphModel.getNeighborhood(nodeId, depth, filter);
+    timing.endPhase(RequestPhase.GENERATION);
+    if (neighborhood == null) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "Node not found: " + nodeId);
+      return;
+    }
+    timing.recordGraphSize(neighborhood.components.length + neighborhood.capabilities.length,
+        countEdges(neighborhood));
+
     resp.setCharacterEncoding(StandardCharsets.UTF_8.name());
     resp.setContentType("application/json");
-    ECMGraphDTO ecmGraph = ECMGraphGenerator.generate(containerTracker, filter);
+    writeGraphJson(neighborhood, timing.getWriter(resp), isCompactFormatRequested(req));
+    timing.endPhase(RequestPhase.SERIALIZATION);
+  }
+
+  private void serveGraphJson(final HttpServletRequest req, final HttpServletResponse resp,
+      final RequestTiming timing) throws IOException {
+
+    if (HttpCacheUtil.checkNotModified(req, resp, graphModel.getETag())) {
+      return;
+    }
+    timing.endPhase(RequestPhase.SNAPSHOT);
 
-    String json = GSON.toJson(ecmGraph);
-    resp.getWriter().write(json);
+    // A generation of an earlier start of the bundle or an unknown token results in a full graph
+    String since = req.getParameter("since");
+    String graphFilter = req.getParameter("graphFilter");
+    if ((graphFilter != null) && !graphFilter.isEmpty()) {
+      try {
+        Filter filter = filterCache.getFilter(graphFilter);
+        renderGraphJson(req, resp, filter, since, timing);
+        return;
+      } catch (InvalidSyntaxException e) {
+        resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        resp.getWriter().append(e.getMessage());
+        return;
+      }
+    } else {
+      renderGraphJson(req, resp, null, since, timing);
+    }
   }
 
   @Override
@@ -121,28 +248,61 @@ public class ECMGraphWebConsolePlugin extends HttpServlet {
 
     String pathInfo = req.getPathInfo().substring(PLUGIN_ROOT_LENGTH_IN_PATHINFO);
     if ("/graph.json".equals(pathInfo)) {
-      String graphFilter = req.getParameter("graphFilter");
-      if ((graphFilter != null) && !graphFilter.isEmpty()) {
-        try {
-          Filter filter = FrameworkUtil.createFilter(graphFilter);
-          renderGraphJson(resp, filter);
-          return;
-        } catch (InvalidSyntaxException e) {
-          resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-          resp.getWriter().append(e.getMessage());
-          return;
-        }
-      } else {
-        renderGraphJson(resp, null);
+      RequestTiming timing =
+          requestMetrics.getEndpointMetrics(RequestEndpoint.GRAPH_JSON).startRequest();
+      try {
+        serveGraphJson(req, resp, timing);
+      } finally {
+        timing.end();
       }
       return;
     }
 
-    Map<String, Object> vars = new HashMap<>();
-    vars.put("appRoot", req.getAttribute("felix.webconsole.appRoot"));
-    vars.put("pluginRoot", req.getAttribute("felix.webconsole.pluginRoot"));
+    RequestTiming timing =
+        requestMetrics.getEndpointMetrics(RequestEndpoint.GRAPH_PAGE).startRequest();
+    try {
+      Map<String, Object> vars = new HashMap<>();
+      vars.put("appRoot", req.getAttribute("felix.webconsole.appRoot"));
+      vars.put("pluginRoot", req.getAttribute("felix.webconsole.pluginRoot"));
+
+      HTML_TEMPLATE.render(timing.getWriter(resp), vars);
+      timing.endPhase(RequestPhase.SERIALIZATION);
+    } finally {
+      timing.end();
+    }
+  }
+
+  /**
+   * Writes the graph node by node to the writer, so the JSON representation of the whole graph is
+   * never held in the memory.
+   */
+  static void writeGraphJson(final ECMGraphDTO ecmGraph, final Writer writer,
+      final boolean compact) throws IOException {
+
+    JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+    if (compact) {
+      new CompactGraphWriter(jsonWriter).write(ecmGraph);
+      return;
+    }
+
+    jsonWriter.beginObject();
+
+    jsonWriter.name("generation").value(ecmGraph.generation);
+
+    jsonWriter.name("capabilities").beginArray();
+    for (CapabilityNodeDTO capabilityNode : ecmGraph.capabilities) {
+      GSON.toJson(capabilityNode, CapabilityNodeDTO.class, jsonWriter);
+    }
+    jsonWriter.endArray();
+
+    jsonWriter.name("components").beginArray();
+    for (ComponentNodeDTO componentNode : ecmGraph.components) {
+      GSON.toJson(componentNode, ComponentNodeDTO.class, jsonWriter);
+    }
+    jsonWriter.endArray();
 
-    HTML_TEMPLATE.render(resp.getWriter(), vars);
+    jsonWriter.endObject();
+    jsonWriter.flush();
   }
 
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The changes between two generations of the assembled graph. Merging change sets of consecutive
+ * generations results in the changes between the first and the last generation.
+ */
+class GraphChangeSet {
+
+  public final Map<String, CapabilityNodeDTO> capabilities = new LinkedHashMap<>();
+
+  public final Map<String, ComponentNodeDTO> components = new LinkedHashMap<>();
+
+  public long generation;
+
+  public final Set<String> removedCapabilityNodeIds = new HashSet<>();
+
+  public final Set<String> removedComponentNodeIds = new HashSet<>();
+
+  public boolean isEmpty() {
+    return capabilities.isEmpty() && components.isEmpty() && removedCapabilityNodeIds.isEmpty()
+        && removedComponentNodeIds.isEmpty();
+  }
+
+  /**
+   * Applies the changes of a later generation on this change set.
+   *
+   * @param later
+   *          The change set of the later generation.
+   */
+  public void merge(final GraphChangeSet later) {
+    for (String nodeId : later.removedCapabilityNodeIds) {
+      capabilities.remove(nodeId);
+      removedCapabilityNodeIds.add(nodeId);
+    }
+    for (String nodeId : later.removedComponentNodeIds) {
+      components.remove(nodeId);
+      removedComponentNodeIds.add(nodeId);
+    }
+    for (CapabilityNodeDTO capabilityNode : later.capabilities.values()) {
+      removedCapabilityNodeIds.remove(capabilityNode.nodeId);
+      capabilities.put(capabilityNode.nodeId, capabilityNode);
+    }
+    for (ComponentNodeDTO componentNode : later.components.values()) {
+      removedComponentNodeIds.remove(componentNode.nodeId);
+      components.put(componentNode.nodeId, componentNode);
+    }
+    generation = later.generation;
+  }
+
+  /**
+   * Converts the change set to a DTO that can be passed to the client.
+   *
+   * @param generationToken
+   *          The generation of the change set in <code>epoch-generation</code> form.
+   * @return The DTO.
+   */
+  public ECMGraphDeltaDTO toDTO(final String generationToken) {
+    ECMGraphDeltaDTO result = new ECMGraphDeltaDTO();
+    result.generation = generationToken;
+    result.capabilities = capabilities.values().toArray(new CapabilityNodeDTO[capabilities.size()]);
+    result.components = components.values().toArray(new ComponentNodeDTO[components.size()]);
+    result.removedCapabilityNodeIds =
+        removedCapabilityNodeIds.toArray(new String[removedCapabilityNodeIds.size()]);
+    result.removedComponentNodeIds =
+        removedComponentNodeIds.toArray(new String[removedComponentNodeIds.size()]);
+    return result;
+  }
+}
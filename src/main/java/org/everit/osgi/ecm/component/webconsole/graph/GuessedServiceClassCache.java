@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.everit.osgi.ecm.component.resource.ComponentRevision;
+import org.everit.osgi.ecm.metadata.ComponentMetadata;
+import org.everit.osgi.ecm.metadata.ServiceMetadata;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+
+/**
+ * Caches the service interfaces that the components would register if they were active. The
+ * interfaces are resolved via reflection on the component class only once per bundle revision and
+ * component metadata.
+ */
+class GuessedServiceClassCache {
+
+  /**
+   * The resolved service classes of the components of one bundle revision.
+   */
+  private static class BundleRevisionEntry {
+
+    final BundleRevision bundleRevision;
+
+    final Map<ComponentMetadata, Set<Set<String>>> serviceClassesByMetadata =
+        new ConcurrentHashMap<>();
+
+    BundleRevisionEntry(final BundleRevision bundleRevision) {
+      this.bundleRevision = bundleRevision;
+    }
+  }
+
+  private final Map<Long, BundleRevisionEntry> entriesByBundleId = new ConcurrentHashMap<>();
+
+  private void addImplementedInterfacesToSet(final Class<?> clazz, final Set<String> result) {
+    if (clazz.isInterface()) {
+      result.add(clazz.getName());
+    } else {
+      Class<?> superclass = clazz.getSuperclass();
+      if (superclass != null) {
+        addImplementedInterfacesToSet(superclass, result);
+      }
+    }
+
+    Class<?>[] interfaces = clazz.getInterfaces();
+    for (Class<?> interfaze : interfaces) {
+      addImplementedInterfacesToSet(interfaze, result);
+    }
+
+  }
+
+  private boolean addServiceInstanceClassesToServiceSet(final ServiceMetadata service,
+      final Set<Set<String>> result, final ComponentMetadata componentMetadata,
+      final ClassLoader componentClassLoader, final boolean pEmptyClassArrayProcessed) {
+    boolean emptyClassArrayProcessed = pEmptyClassArrayProcessed;
+    String[] clazzNames = service.getClazzes();
+    Set<String> serviceInterfaces = new LinkedHashSet<>();
+    if (clazzNames.length == 0) {
+      String componentType = componentMetadata.getType();
+      Class<?> componentClass;
+      try {
+        componentClass = componentClassLoader.loadClass(componentType);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException("The class " + componentType
+            + " cannot be loaded by the classloader of the bundle of the component: "
+            + componentClassLoader, e);
+      }
+      addImplementedInterfacesToSet(componentClass, serviceInterfaces);
+
+      // No interface is implemented and defined, so add the type of the class
+      if (serviceInterfaces.size() == 0) {
+        serviceInterfaces.add(componentClass.getName());
+      }
+      emptyClassArrayProcessed = true;
+    } else {
+      serviceInterfaces.addAll(Arrays.asList(clazzNames));
+    }
+    result.add(serviceInterfaces);
+    return emptyClassArrayProcessed;
+  }
+
+  /**
+   * Drops the cached service classes of the components of a bundle. Should be called when the
+   * bundle is updated or uninstalled.
+   *
+   * @param bundleId
+   *          The id of the bundle.
+   */
+  public void evict(final long bundleId) {
+    entriesByBundleId.remove(bundleId);
+  }
+
+  /**
+   * Returns the set of service interface sets that the component would register if it was active.
+   *
+   * @param componentRevision
+   *          The revision of the component.
+   * @return The service interface sets of the component.
+   */
+  public Set<Set<String>> getGuessedServiceClasses(final ComponentRevision<?> componentRevision) {
+    BundleRevision bundleRevision = componentRevision.getDeclaringResource();
+    long bundleId = bundleRevision.getBundle().getBundleId();
+    BundleRevisionEntry entry = entriesByBundleId.get(bundleId);
+    if ((entry == null) || (entry.bundleRevision != bundleRevision)) {
+      entry = new BundleRevisionEntry(bundleRevision);
+      entriesByBundleId.put(bundleId, entry);
+    }
+
+    ComponentMetadata componentMetadata =
+        componentRevision.getComponentContainer().getComponentMetadata();
+
+    Set<Set<String>> result = entry.serviceClassesByMetadata.get(componentMetadata);
+    if (result == null) {
+      result = resolveGuessedServiceClasses(componentMetadata,
+          bundleRevision.getBundle().adapt(BundleWiring.class).getClassLoader());
+      entry.serviceClassesByMetadata.put(componentMetadata, result);
+    }
+    return result;
+  }
+
+  private Set<Set<String>> resolveGuessedServiceClasses(final ComponentMetadata componentMetadata,
+      final ClassLoader componentClassLoader) {
+
+    Set<Set<String>> result = new LinkedHashSet<>();
+    ServiceMetadata service = componentMetadata.getService();
+
+    boolean emptyClassArrayProcessed = false;
+
+    if (service != null) {
+      emptyClassArrayProcessed =
+          addServiceInstanceClassesToServiceSet(service, result, componentMetadata,
+              componentClassLoader, false);
+    }
+
+    ServiceMetadata[] manualServices = componentMetadata.getManualServices();
+    for (ServiceMetadata manualService : manualServices) {
+      addServiceInstanceClassesToServiceSet(manualService, result, componentMetadata,
+          componentClassLoader, emptyClassArrayProcessed);
+    }
+
+    return Collections.unmodifiableSet(result);
+  }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.osgi.framework.Filter;
+
+/**
+ * Index of the string properties of graph nodes. The index can find the candidate nodes of simple
+ * equality and prefix filters like <code>(service.pid=foo*)</code> and of conjunctions that
+ * contain such filters without checking every node of the graph. The candidates must still be
+ * checked with {@link Filter#matches(Map)}, as they are only a superset of the matching nodes.
+ *
+ * <p>
+ * Every {@link ContainerGraphFragment} indexes its own nodes when it is generated and the indexes
+ * of the fragments are queried together, so the graph does not have to be indexed again when only
+ * some of the fragments change.
+ */
+final class PropertyIndex {
+
+  /**
+   * An equality or prefix filter on a single key.
+   */
+  private static final class SimpleFilter {
+
+    final String key;
+
+    final boolean prefix;
+
+    final String value;
+
+    SimpleFilter(final String key, final String value, final boolean prefix) {
+      this.key = key;
+      this.value = value;
+      this.prefix = prefix;
+    }
+  }
+
+  /**
+   * An equality or substring filter with at most one wildcard at the end of the value. Escaped
+   * characters are not supported.
+   */
+  private static final Pattern SIMPLE_FILTER_PATTERN =
+      Pattern.compile("\\(([^=<>~()\\\\*\\s]+)=([^()\\\\*]*)(\\*?)\\)");
+
+  private static void addValue(final Map<String, List<String>> nodeIdsByValue,
+      final String value, final String nodeId) {
+    List<String> nodeIds = nodeIdsByValue.get(value);
+    if (nodeIds == null) {
+      nodeIds = new ArrayList<>(1);
+      nodeIdsByValue.put(value, nodeIds);
+    }
+    nodeIds.add(nodeId);
+  }
+
+  /**
+   * Finds the nodes that might match a filter in several indexes.
+   *
+   * @param filter
+   *          The filter.
+   * @param indexes
+   *          The indexes of the fragments of the graph.
+   * @return The ids of the candidate nodes or <code>null</code> if the filter cannot be evaluated
+   *         with the indexes and all nodes should be checked.
+   */
+  public static Set<String> findCandidates(final Filter filter,
+      final Collection<PropertyIndex> indexes) {
+
+    String filterString = filter.toString();
+    SimpleFilter simpleFilter = parseSimpleFilter(filterString);
+    if (simpleFilter != null) {
+      return findSimpleFilterCandidates(simpleFilter, indexes);
+    }
+
+    List<String> operands = splitConjunction(filterString);
+    if (operands == null) {
+      return null;
+    }
+
+    // Any of the operands narrows the result, the one with the least candidates is used
+    Set<String> result = null;
+    for (String operand : operands) {
+      SimpleFilter operandFilter = parseSimpleFilter(operand);
+      if (operandFilter == null) {
+        continue;
+      }
+      Set<String> operandCandidates = findSimpleFilterCandidates(operandFilter, indexes);
+      if ((operandCandidates != null)
+          && ((result == null) || (operandCandidates.size() < result.size()))) {
+        result = operandCandidates;
+      }
+    }
+    return result;
+  }
+
+  private static Set<String> findSimpleFilterCandidates(final SimpleFilter simpleFilter,
+      final Collection<PropertyIndex> indexes) {
+    Set<String> result = new LinkedHashSet<>();
+    for (PropertyIndex index : indexes) {
+      if (!index.addCandidates(simpleFilter, result)) {
+        return null;
+      }
+    }
+    return result;
+  }
+
+  private static SimpleFilter parseSimpleFilter(final String filterString) {
+    Matcher matcher = SIMPLE_FILTER_PATTERN.matcher(filterString);
+    if (!matcher.matches()) {
+      return null;
+    }
+    return new SimpleFilter(matcher.group(1), matcher.group(2), !matcher.group(3).isEmpty());
+  }
+
+  /**
+   * Splits the operands of a conjunction filter. Returns <code>null</code> if the filter is not a
+   * conjunction.
+   */
+  private static List<String> splitConjunction(final String filterString) {
+    if (!filterString.startsWith("(&") || !filterString.endsWith(")")
+        || (filterString.indexOf('\\') >= 0)) {
+      return null;
+    }
+
+    List<String> result = new ArrayList<>();
+    int depth = 0;
+    int operandStart = -1;
+    for (int i = 2, n = filterString.length() - 1; i < n; i++) {
+      char c = filterString.charAt(i);
+      if (c == '(') {
+        if (depth == 0) {
+          operandStart = i;
+        }
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          result.add(filterString.substring(operandStart, i + 1));
+        }
+      }
+    }
+    return result;
+  }
+
+  private final Map<String, TreeMap<String, List<String>>> nodeIdsByValueByKey = new HashMap<>();
+
+  /**
+   * Keys that have at least one value that is not a string. Filters on these keys are evaluated
+   * by comparing the typed values, so they cannot be answered by the index.
+   */
+  private final Set<String> unindexableKeys = new HashSet<>();
+
+  /**
+   * Adds the properties of a node to the index.
+   *
+   * @param nodeId
+   *          The id of the node.
+   * @param properties
+   *          The properties of the node.
+   */
+  public void add(final String nodeId, final Map<String, Object> properties) {
+    for (Entry<String, Object> entry : properties.entrySet()) {
+      String key = entry.getKey();
+      if (unindexableKeys.contains(key)) {
+        continue;
+      }
+
+      TreeMap<String, List<String>> nodeIdsByValue = nodeIdsByValueByKey.get(key);
+      if (nodeIdsByValue == null) {
+        nodeIdsByValue = new TreeMap<>();
+        nodeIdsByValueByKey.put(key, nodeIdsByValue);
+      }
+
+      if (!addValues(nodeIdsByValue, entry.getValue(), nodeId)) {
+        unindexableKeys.add(key);
+        nodeIdsByValueByKey.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Adds the nodes that might match a simple filter to the result.
+   *
+   * @return <code>false</code> if the filter cannot be evaluated with this index.
+   */
+  private boolean addCandidates(final SimpleFilter simpleFilter, final Set<String> result) {
+    if (unindexableKeys.contains(simpleFilter.key)) {
+      return false;
+    }
+
+    TreeMap<String, List<String>> nodeIdsByValue = nodeIdsByValueByKey.get(simpleFilter.key);
+    if (nodeIdsByValue == null) {
+      return true;
+    }
+
+    String value = simpleFilter.value;
+    if (!simpleFilter.prefix) {
+      List<String> nodeIds = nodeIdsByValue.get(value);
+      if (nodeIds != null) {
+        result.addAll(nodeIds);
+      }
+    } else {
+      // The values with the prefix follow each other, even if they contain Character.MAX_VALUE
+      for (Entry<String, List<String>> entry : nodeIdsByValue.tailMap(value, true).entrySet()) {
+        if (!entry.getKey().startsWith(value)) {
+          break;
+        }
+        result.addAll(entry.getValue());
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Adds the values of a property to the index.
+   *
+   * @return <code>false</code> if the property cannot be indexed. Empty arrays and collections
+   *         cannot be indexed either, as they match the presence filters without any value.
+   */
+  private boolean addValues(final Map<String, List<String>> nodeIdsByValue, final Object value,
+      final String nodeId) {
+    if (value instanceof String) {
+      addValue(nodeIdsByValue, (String) value, nodeId);
+      return true;
+    }
+    if (value instanceof String[]) {
+      if (((String[]) value).length == 0) {
+        return false;
+      }
+      for (String element : (String[]) value) {
+        addValue(nodeIdsByValue, element, nodeId);
+      }
+      return true;
+    }
+    if (value instanceof Collection) {
+      if (((Collection<?>) value).isEmpty()) {
+        return false;
+      }
+      for (Object element : (Collection<?>) value) {
+        if (!(element instanceof String)) {
+          return false;
+        }
+        addValue(nodeIdsByValue, (String) element, nodeId);
+      }
+      return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+/**
+ * JMX view of the efficiency of a cache of the webconsole plugins.
+ */
+public interface CacheMetricsMXBean {
+
+  /**
+   * Returns the number of lookups that found a valid entry.
+   *
+   * @return The number of hits since the cache was created.
+   */
+  long getHitCount();
+
+  /**
+   * Returns the number of lookups that did not find a valid entry.
+   *
+   * @return The number of misses since the cache was created.
+   */
+  long getMissCount();
+
+  /**
+   * Returns the number of entries that are currently held by the cache.
+   *
+   * @return The number of entries.
+   */
+  int getSize();
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The latencies, response sizes and graph sizes of the requests of one endpoint.
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+  private final Histogram edgeCount = new Histogram();
+
+  private final Histogram latency = new Histogram();
+
+  private final Histogram nodeCount = new Histogram();
+
+  private final Map<RequestPhase, Histogram> phaseLatencies = new EnumMap<>(RequestPhase.class);
+
+  private final Histogram responseSize = new Histogram();
+
+  /**
+   * Constructor.
+   */
+  public EndpointMetrics() {
+    for (RequestPhase phase : RequestPhase.values()) {
+      phaseLatencies.put(phase, new Histogram());
+    }
+  }
+
+  /**
+   * Creates a snapshot of the metrics for the JSON representation.
+   *
+   * @return The snapshot.
+   */
+  public EndpointMetricsDTO createDTO() {
+    EndpointMetricsDTO result = new EndpointMetricsDTO();
+    result.edgeCount = getEdgeCount();
+    result.latency = getLatency();
+    result.nodeCount = getNodeCount();
+    result.phaseLatencies = getPhaseLatencies();
+    result.requestCount = result.latency.getCount();
+    result.responseSize = getResponseSize();
+    return result;
+  }
+
+  @Override
+  public HistogramSnapshot getEdgeCount() {
+    return edgeCount.createSnapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getLatency() {
+    return latency.createSnapshot();
+  }
+
+  @Override
+  public HistogramSnapshot getNodeCount() {
+    return nodeCount.createSnapshot();
+  }
+
+  @Override
+  public Map<String, HistogramSnapshot> getPhaseLatencies() {
+    Map<String, HistogramSnapshot> result = new LinkedHashMap<>();
+    for (Entry<RequestPhase, Histogram> entry : phaseLatencies.entrySet()) {
+      HistogramSnapshot snapshot = entry.getValue().createSnapshot();
+      if (snapshot.getCount() > 0) {
+        result.put(entry.getKey().name(), snapshot);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public long getRequestCount() {
+    return latency.getCount();
+  }
+
+  @Override
+  public HistogramSnapshot getResponseSize() {
+    return responseSize.createSnapshot();
+  }
+
+  void recordGraphSize(final long nodes, final long edges) {
+    nodeCount.record(nodes);
+    edgeCount.record(edges);
+  }
+
+  void recordPhase(final RequestPhase phase, final long latencyInMicros) {
+    phaseLatencies.get(phase).record(latencyInMicros);
+  }
+
+  void recordRequest(final long latencyInMicros, final long responseSizeInChars) {
+    latency.record(latencyInMicros);
+    responseSize.record(responseSizeInChars);
+  }
+
+  /**
+   * Starts measuring a request of the endpoint.
+   *
+   * @return The timing of the request that must be ended when the request is answered.
+   */
+  public RequestTiming startRequest() {
+    return new RequestTiming(this);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of an endpoint in the JSON representation. The latencies are in microseconds and
+ * the response sizes are in characters.
+ */
+public class EndpointMetricsDTO {
+
+  public HistogramSnapshot edgeCount;
+
+  public HistogramSnapshot latency;
+
+  public HistogramSnapshot nodeCount;
+
+  public Map<String, HistogramSnapshot> phaseLatencies;
+
+  public long requestCount;
+
+  public HistogramSnapshot responseSize;
+}
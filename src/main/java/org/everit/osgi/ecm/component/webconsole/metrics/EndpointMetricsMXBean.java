@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a webconsole endpoint. The latencies are in microseconds and the
+ * response sizes are in characters.
+ */
+public interface EndpointMetricsMXBean {
+
+  /**
+   * Returns the edge counts of the returned graphs. The node and edge counts are recorded only
+   * for the requests that return a whole graph or a neighborhood.
+   *
+   * @return The histogram of the edge counts.
+   */
+  HistogramSnapshot getEdgeCount();
+
+  HistogramSnapshot getLatency();
+
+  /**
+   * Returns the node counts of the returned graphs.
+   *
+   * @return The histogram of the node counts.
+   */
+  HistogramSnapshot getNodeCount();
+
+  /**
+   * Returns the latencies of the phases that the endpoint has by the names of the phases.
+   *
+   * @return The histograms of the phase latencies.
+   */
+  Map<String, HistogramSnapshot> getPhaseLatencies();
+
+  long getRequestCount();
+
+  HistogramSnapshot getResponseSize();
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with fixed buckets. The upper bounds of the buckets follow
+ * the 1-2-5 sequence from 1 to 5 * 10^9, so the histogram has the same relative precision for
+ * microseconds, characters and node counts. Values are recorded without locking, so a snapshot
+ * might contain a value in the count that is not in the buckets yet.
+ */
+public class Histogram {
+
+  private static final long[] BUCKET_UPPER_BOUNDS;
+
+  private static final int MAX_EXPONENT = 9;
+
+  static {
+    final int[] mantissas = { 1, 2, 5 };
+    BUCKET_UPPER_BOUNDS = new long[((MAX_EXPONENT + 1) * mantissas.length) + 1];
+    long magnitude = 1;
+    int index = 0;
+    for (int exponent = 0; exponent <= MAX_EXPONENT; exponent++) {
+      for (int mantissa : mantissas) {
+        BUCKET_UPPER_BOUNDS[index++] = mantissa * magnitude;
+      }
+      magnitude *= 10;
+    }
+    BUCKET_UPPER_BOUNDS[index] = Long.MAX_VALUE;
+  }
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_UPPER_BOUNDS.length);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  private final AtomicLong sum = new AtomicLong();
+
+  /**
+   * Creates a snapshot of the recorded values.
+   *
+   * @return The snapshot.
+   */
+  public HistogramSnapshot createSnapshot() {
+    long[] counts = new long[BUCKET_UPPER_BOUNDS.length];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = bucketCounts.get(i);
+    }
+    return new HistogramSnapshot(count.get(), sum.get(), max.get(), BUCKET_UPPER_BOUNDS.clone(),
+        counts);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Records a value. Negative values are recorded as zero.
+   *
+   * @param value
+   *          The value.
+   */
+  public void record(final long value) {
+    long nonNegativeValue = Math.max(0, value);
+
+    int bucketIndex = 0;
+    while (BUCKET_UPPER_BOUNDS[bucketIndex] < nonNegativeValue) {
+      bucketIndex++;
+    }
+    bucketCounts.incrementAndGet(bucketIndex);
+    count.incrementAndGet();
+    sum.addAndGet(nonNegativeValue);
+
+    long currentMax = max.get();
+    while ((nonNegativeValue > currentMax) && !max.compareAndSet(currentMax, nonNegativeValue)) {
+      currentMax = max.get();
+    }
+  }
+}
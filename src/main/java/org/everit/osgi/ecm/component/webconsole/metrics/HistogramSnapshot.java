@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+/**
+ * The values recorded by a {@link Histogram} at a given moment. The percentiles are estimated by
+ * the upper bound of the bucket that contains them, so they are never lower than the real
+ * percentiles. The getters make the snapshot an open type of the JMX MXBeans, the fields are
+ * written to the JSON representation.
+ */
+public class HistogramSnapshot {
+
+  private static final double P50 = 0.5;
+
+  private static final double P90 = 0.9;
+
+  private static final double P99 = 0.99;
+
+  private final long[] bucketCounts;
+
+  private final long[] bucketUpperBounds;
+
+  private final long count;
+
+  private final long max;
+
+  private final double mean;
+
+  private final long p50;
+
+  private final long p90;
+
+  private final long p99;
+
+  private final long sum;
+
+  /**
+   * Constructor.
+   *
+   * @param count
+   *          The number of the recorded values.
+   * @param sum
+   *          The sum of the recorded values.
+   * @param max
+   *          The highest recorded value.
+   * @param bucketUpperBounds
+   *          The inclusive upper bounds of the buckets in increasing order.
+   * @param bucketCounts
+   *          The number of the recorded values in each bucket.
+   */
+  public HistogramSnapshot(final long count, final long sum, final long max,
+      final long[] bucketUpperBounds, final long[] bucketCounts) {
+    this.count = count;
+    this.sum = sum;
+    this.max = max;
+    this.bucketUpperBounds = bucketUpperBounds;
+    this.bucketCounts = bucketCounts;
+    mean = (count == 0) ? 0 : ((double) sum / count);
+    p50 = estimatePercentile(P50);
+    p90 = estimatePercentile(P90);
+    p99 = estimatePercentile(P99);
+  }
+
+  private long estimatePercentile(final double quantile) {
+    long bucketCountSum = 0;
+    for (long bucketCount : bucketCounts) {
+      bucketCountSum += bucketCount;
+    }
+    if (bucketCountSum == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(quantile * bucketCountSum);
+    long cumulativeCount = 0;
+    for (int i = 0; i < bucketCounts.length; i++) {
+      cumulativeCount += bucketCounts[i];
+      if (cumulativeCount >= rank) {
+        // The highest bucket is not bounded, the bound of its values is the maximum
+        return Math.min(bucketUpperBounds[i], max);
+      }
+    }
+    return max;
+  }
+
+  public long[] getBucketCounts() {
+    return bucketCounts.clone();
+  }
+
+  public long[] getBucketUpperBounds() {
+    return bucketUpperBounds.clone();
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return mean;
+  }
+
+  public long getP50() {
+    return p50;
+  }
+
+  public long getP90() {
+    return p90;
+  }
+
+  public long getP99() {
+    return p99;
+  }
+
+  public long getSum() {
+    return sum;
+  }
+}
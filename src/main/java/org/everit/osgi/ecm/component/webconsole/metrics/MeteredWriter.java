@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Counts the characters that are written to a writer and measures the time that the writer
+ * spends with them. The writer is used by one request, so it is not thread safe.
+ */
+class MeteredWriter extends Writer {
+
+  private long charCount = 0;
+
+  private final Writer delegate;
+
+  private long writeTimeInNanos = 0;
+
+  MeteredWriter(final Writer delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void close() throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      delegate.close();
+    } finally {
+      writeTimeInNanos += System.nanoTime() - startTime;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      delegate.flush();
+    } finally {
+      writeTimeInNanos += System.nanoTime() - startTime;
+    }
+  }
+
+  long getCharCount() {
+    return charCount;
+  }
+
+  long getWriteTimeInNanos() {
+    return writeTimeInNanos;
+  }
+
+  @Override
+  public void write(final char[] cbuf, final int off, final int len) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      delegate.write(cbuf, off, len);
+    } finally {
+      writeTimeInNanos += System.nanoTime() - startTime;
+    }
+    charCount += len;
+  }
+
+  @Override
+  public void write(final String str, final int off, final int len) throws IOException {
+    long startTime = System.nanoTime();
+    try {
+      delegate.write(str, off, len);
+    } finally {
+      writeTimeInNanos += System.nanoTime() - startTime;
+    }
+    charCount += len;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.everit.osgi.ecm.component.resource.ComponentState;
+import org.everit.osgi.ecm.component.webconsole.BundleComponentCountsDTO;
+
+/**
+ * Writes metrics in the Prometheus text exposition format. Every metric family is written with its
+ * <code>HELP</code> and <code>TYPE</code> lines. The counts of every state are written even if they
+ * are zero, so the time series of a bundle do not disappear when no component is in a state.
+ */
+public class PrometheusMetricsWriter {
+
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double MICROS_PER_SECOND = 1000000d;
+
+  private static String escapeLabelValue(final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private final Writer out;
+
+  /**
+   * Constructor.
+   *
+   * @param out
+   *          The writer that the metrics are written to.
+   */
+  public PrometheusMetricsWriter(final Writer out) {
+    this.out = out;
+  }
+
+  private String bundleLabels(final BundleComponentCountsDTO counts) {
+    String symbolicName = (counts.symbolicName != null) ? counts.symbolicName : "";
+    return "bundle_id=\"" + counts.bundleId + "\",bundle=\"" + escapeLabelValue(symbolicName)
+        + '"';
+  }
+
+  private String cacheLabels(final String cacheName) {
+    return "cache=\"" + escapeLabelValue(cacheName) + '"';
+  }
+
+  /**
+   * Flushes the underlying writer.
+   *
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  /**
+   * Writes the number of containers, the number of revisions by state and the number of
+   * unsatisfied requirements of each bundle.
+   *
+   * @param bundleComponentCounts
+   *          The counts of the bundles.
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void writeComponentCounts(
+      final Collection<BundleComponentCountsDTO> bundleComponentCounts) throws IOException {
+
+    writeHeader("ecm_component_containers", "gauge",
+        "The number of ECM component containers by the bundle that registered them.");
+    for (BundleComponentCountsDTO counts : bundleComponentCounts) {
+      writeSample("ecm_component_containers", bundleLabels(counts), counts.containerCount);
+    }
+
+    writeHeader("ecm_component_revisions", "gauge",
+        "The number of ECM component revisions by bundle and state.");
+    ComponentState[] states = ComponentState.values();
+    for (BundleComponentCountsDTO counts : bundleComponentCounts) {
+      String labels = bundleLabels(counts);
+      for (ComponentState state : states) {
+        writeSample("ecm_component_revisions", labels + ",state=\"" + state.name() + '"',
+            counts.revisionCountByState[state.ordinal()]);
+      }
+    }
+
+    writeHeader("ecm_component_unsatisfied_requirements", "gauge",
+        "The number of requirements of the unsatisfied ECM component revisions that are not"
+            + " wired, by bundle.");
+    for (BundleComponentCountsDTO counts : bundleComponentCounts) {
+      writeSample("ecm_component_unsatisfied_requirements", bundleLabels(counts),
+          counts.unsatisfiedRequirementCount);
+    }
+  }
+
+  /**
+   * Writes the number of hits, misses and entries of each cache.
+   *
+   * @param cachesByName
+   *          The caches by their names.
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void writeCacheMetrics(final Map<String, CacheMetricsMXBean> cachesByName)
+      throws IOException {
+
+    writeHeader("ecm_webconsole_cache_hits_total", "counter",
+        "The number of lookups that found a valid entry in a cache of the webconsole plugins.");
+    for (Entry<String, CacheMetricsMXBean> entry : cachesByName.entrySet()) {
+      writeSample("ecm_webconsole_cache_hits_total", cacheLabels(entry.getKey()),
+          entry.getValue().getHitCount());
+    }
+
+    writeHeader("ecm_webconsole_cache_misses_total", "counter",
+        "The number of lookups that did not find a valid entry in a cache of the webconsole"
+            + " plugins.");
+    for (Entry<String, CacheMetricsMXBean> entry : cachesByName.entrySet()) {
+      writeSample("ecm_webconsole_cache_misses_total", cacheLabels(entry.getKey()),
+          entry.getValue().getMissCount());
+    }
+
+    writeHeader("ecm_webconsole_cache_entries", "gauge",
+        "The number of entries that are held by a cache of the webconsole plugins.");
+    for (Entry<String, CacheMetricsMXBean> entry : cachesByName.entrySet()) {
+      writeSample("ecm_webconsole_cache_entries", cacheLabels(entry.getKey()),
+          entry.getValue().getSize());
+    }
+  }
+
+  private void writeHeader(final String name, final String type, final String help)
+      throws IOException {
+    out.write("# HELP " + name + ' ' + help + '\n');
+    out.write("# TYPE " + name + ' ' + type + '\n');
+  }
+
+  /**
+   * Writes a histogram that holds microseconds as a Prometheus histogram in seconds.
+   *
+   * @param name
+   *          The name of the metric family.
+   * @param help
+   *          The description of the metric.
+   * @param histogram
+   *          The histogram.
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void writeMicrosHistogramInSeconds(final String name, final String help,
+      final HistogramSnapshot histogram) throws IOException {
+
+    writeHeader(name, "histogram", help);
+    long[] upperBounds = histogram.getBucketUpperBounds();
+    long[] bucketCounts = histogram.getBucketCounts();
+    long cumulativeCount = 0;
+    for (int i = 0; i < upperBounds.length; i++) {
+      cumulativeCount += bucketCounts[i];
+      String le = (upperBounds[i] == Long.MAX_VALUE) ? "+Inf"
+          : Double.toString(upperBounds[i] / MICROS_PER_SECOND);
+      writeSample(name + "_bucket", "le=\"" + le + '"', cumulativeCount);
+    }
+    out.write(name + "_sum " + (histogram.getSum() / MICROS_PER_SECOND) + '\n');
+    // The count must match the +Inf bucket even if a value was recorded during the snapshot
+    writeSample(name + "_count", null, cumulativeCount);
+  }
+
+  private void writeSample(final String name, final String labels, final long value)
+      throws IOException {
+    if (labels == null) {
+      out.write(name + ' ' + value + '\n');
+    } else {
+      out.write(name + '{' + labels + "} " + value + '\n');
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+/**
+ * The endpoints of the webconsole plugins that are measured.
+ */
+public enum RequestEndpoint {
+
+  /**
+   * Request of the details of one component revision.
+   */
+  FRAGMENT("fragment"),
+
+  /**
+   * Batch request of the details of several component revisions.
+   */
+  FRAGMENTS("fragments"),
+
+  /**
+   * The JSON representation of the whole graph, a filtered graph, a neighborhood or a delta.
+   */
+  GRAPH_JSON("graph.json"),
+
+  /**
+   * The HTML page of the graph plugin.
+   */
+  GRAPH_PAGE("graphPage"),
+
+  /**
+   * The HTML page of the components table.
+   */
+  TABLE_PAGE("tablePage");
+
+  private final String endpointName;
+
+  RequestEndpoint(final String endpointName) {
+    this.endpointName = endpointName;
+  }
+
+  /**
+   * The name of the endpoint in the JSON representation and in the JMX object names.
+   *
+   * @return The name.
+   */
+  public String getEndpointName() {
+    return endpointName;
+  }
+}
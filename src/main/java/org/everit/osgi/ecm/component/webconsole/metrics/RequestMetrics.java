@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The metrics of all measured endpoints and caches of the webconsole plugins. The metrics can be
+ * read as JSON and as MXBeans that are registered with the
+ * <code>org.everit.osgi.ecm.component.webconsole:type=EndpointMetrics,name=&lt;endpoint&gt;</code>
+ * and <code>org.everit.osgi.ecm.component.webconsole:type=CacheMetrics,name=&lt;cache&gt;</code>
+ * object names.
+ */
+public class RequestMetrics {
+
+  public static final String CACHE_OBJECT_NAME_PREFIX =
+      "org.everit.osgi.ecm.component.webconsole:type=CacheMetrics,name=";
+
+  /**
+   * The name of the JSON property that holds the metrics of the caches next to the endpoints.
+   */
+  public static final String CACHES_JSON_NAME = "caches";
+
+  public static final String OBJECT_NAME_PREFIX =
+      "org.everit.osgi.ecm.component.webconsole:type=EndpointMetrics,name=";
+
+  private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+  private static final Logger LOGGER = Logger.getLogger(RequestMetrics.class.getName());
+
+  private final Map<String, CacheMetricsMXBean> cachesByName = new LinkedHashMap<>();
+
+  private final Map<RequestEndpoint, EndpointMetrics> endpointMetricsByEndpoint =
+      new EnumMap<>(RequestEndpoint.class);
+
+  private MBeanServer mbeanServer;
+
+  private final List<ObjectName> registeredObjectNames = new ArrayList<>();
+
+  /**
+   * Constructor.
+   */
+  public RequestMetrics() {
+    for (RequestEndpoint endpoint : RequestEndpoint.values()) {
+      endpointMetricsByEndpoint.put(endpoint, new EndpointMetrics());
+    }
+  }
+
+  /**
+   * Adds a cache whose hits and misses are exported together with the metrics of the endpoints.
+   * If the MXBeans are already registered, the cache is registered as an MXBean immediately.
+   *
+   * @param cacheName
+   *          The name of the cache in the JSON representation, in the JMX object name and in the
+   *          <code>cache</code> label of the Prometheus metrics.
+   * @param cache
+   *          The cache.
+   * @throws IllegalArgumentException
+   *           if a cache with the same name is already added.
+   */
+  public synchronized void addCache(final String cacheName, final CacheMetricsMXBean cache) {
+    if (cachesByName.containsKey(cacheName)) {
+      throw new IllegalArgumentException("A cache is already added with the name " + cacheName);
+    }
+    cachesByName.put(cacheName, cache);
+    if (mbeanServer != null) {
+      registerMBean(cache, CACHE_OBJECT_NAME_PREFIX + cacheName);
+    }
+  }
+
+  /**
+   * Returns the added caches.
+   *
+   * @return The caches by their names in the order they were added.
+   */
+  public synchronized Map<String, CacheMetricsMXBean> getCaches() {
+    return new LinkedHashMap<>(cachesByName);
+  }
+
+  public EndpointMetrics getEndpointMetrics(final RequestEndpoint endpoint) {
+    return endpointMetricsByEndpoint.get(endpoint);
+  }
+
+  private void registerMBean(final Object mbean, final String objectName) {
+    try {
+      registeredObjectNames
+          .add(mbeanServer.registerMBean(mbean, new ObjectName(objectName)).getObjectName());
+    } catch (JMException e) {
+      LOGGER.log(Level.WARNING, "Cannot register the MXBean " + objectName, e);
+    }
+  }
+
+  /**
+   * Registers the metrics of every endpoint and cache as an MXBean. An MXBean that cannot be
+   * registered,
+   * e.g. because another instance of the plugin has already registered the same name, is logged
+   * and skipped, as the metrics are still available as JSON.
+   *
+   * @param mbeanServer
+   *          The server that the MXBeans are registered into.
+   * @throws IllegalStateException
+   *           if the MXBeans are already registered.
+   */
+  public synchronized void registerMBeans(final MBeanServer mbeanServer) {
+    if (this.mbeanServer != null) {
+      throw new IllegalStateException("The MXBeans are already registered");
+    }
+    this.mbeanServer = mbeanServer;
+    for (Entry<RequestEndpoint, EndpointMetrics> entry : endpointMetricsByEndpoint.entrySet()) {
+      registerMBean(entry.getValue(), OBJECT_NAME_PREFIX + entry.getKey().getEndpointName());
+    }
+    for (Entry<String, CacheMetricsMXBean> entry : cachesByName.entrySet()) {
+      registerMBean(entry.getValue(), CACHE_OBJECT_NAME_PREFIX + entry.getKey());
+    }
+  }
+
+  /**
+   * Unregisters the MXBeans that were successfully registered by
+   * {@link #registerMBeans(MBeanServer)}.
+   */
+  public synchronized void unregisterMBeans() {
+    for (ObjectName objectName : registeredObjectNames) {
+      try {
+        mbeanServer.unregisterMBean(objectName);
+      } catch (JMException e) {
+        // Unregistered by someone else, nothing to do
+        continue;
+      }
+    }
+    registeredObjectNames.clear();
+    mbeanServer = null;
+  }
+
+  /**
+   * Writes the metrics of all endpoints as a JSON object by the names of the endpoints. The hits,
+   * misses and sizes of the caches are written by the names of the caches into the
+   * {@link #CACHES_JSON_NAME} property.
+   *
+   * @param writer
+   *          The writer.
+   * @throws IOException
+   *           if the writer throws an exception.
+   */
+  public void writeJson(final Writer writer) throws IOException {
+    Map<String, Object> dtoByName = new LinkedHashMap<>();
+    for (Entry<RequestEndpoint, EndpointMetrics> entry : endpointMetricsByEndpoint.entrySet()) {
+      dtoByName.put(entry.getKey().getEndpointName(), entry.getValue().createDTO());
+    }
+    Map<String, CacheMetricsDTO> cacheDTOByName = new LinkedHashMap<>();
+    for (Entry<String, CacheMetricsMXBean> entry : getCaches().entrySet()) {
+      CacheMetricsMXBean cache = entry.getValue();
+      CacheMetricsDTO cacheDTO = new CacheMetricsDTO();
+      cacheDTO.hitCount = cache.getHitCount();
+      cacheDTO.missCount = cache.getMissCount();
+      cacheDTO.size = cache.getSize();
+      cacheDTOByName.put(entry.getKey(), cacheDTO);
+    }
+    dtoByName.put(CACHES_JSON_NAME, cacheDTOByName);
+
+    JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+    GSON.toJson(dtoByName, Map.class, jsonWriter);
+    jsonWriter.flush();
+  }
+}
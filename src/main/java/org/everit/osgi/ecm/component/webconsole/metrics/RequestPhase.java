@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+/**
+ * The phases of answering a request of the webconsole plugins.
+ */
+public enum RequestPhase {
+
+  /**
+   * Building the model of the response from the graph, the table index or the component
+   * containers.
+   */
+  GENERATION,
+
+  /**
+   * Converting the model to HTML or JSON, without the time of writing the converted text to the
+   * response.
+   */
+  SERIALIZATION,
+
+  /**
+   * Reading the current state: checking the generation of the ECM state, querying the table index
+   * or finding the requested revision.
+   */
+  SNAPSHOT,
+
+  /**
+   * Writing the converted text to the writer of the response.
+   */
+  WRITE
+}
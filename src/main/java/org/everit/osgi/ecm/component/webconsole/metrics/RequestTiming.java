@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Measures the phases of one request. Every phase lasts from the end of the previous phase, or
+ * from the start of the request, until {@link #endPhase(RequestPhase)} is called. The time that
+ * the writer of {@link #getWriter(HttpServletResponse)} spends with writing to the response is
+ * subtracted from the phases and recorded as the {@link RequestPhase#WRITE} phase when the
+ * request ends.
+ *
+ * <p>
+ * The writer buffers the output, so the time of the response writer is measured for bigger chunks
+ * and not for every token of the JSON or HTML output.
+ */
+public class RequestTiming {
+
+  private final EndpointMetrics endpointMetrics;
+
+  private long lastMarkInNanos;
+
+  private MeteredWriter meteredWriter;
+
+  private final long startTimeInNanos;
+
+  private PrintWriter writer;
+
+  private long writeTimeAtLastMarkInNanos = 0;
+
+  RequestTiming(final EndpointMetrics endpointMetrics) {
+    this.endpointMetrics = endpointMetrics;
+    startTimeInNanos = System.nanoTime();
+    lastMarkInNanos = startTimeInNanos;
+  }
+
+  /**
+   * Flushes the writer and records the latency and the response size of the request.
+   */
+  public void end() {
+    long writeTimeInNanos = 0;
+    long responseSize = 0;
+    if (writer != null) {
+      writer.flush();
+      writeTimeInNanos = meteredWriter.getWriteTimeInNanos();
+      responseSize = meteredWriter.getCharCount();
+      endpointMetrics.recordPhase(RequestPhase.WRITE, toMicros(writeTimeInNanos));
+    }
+    endpointMetrics.recordRequest(toMicros(System.nanoTime() - startTimeInNanos), responseSize);
+  }
+
+  /**
+   * Records the latency of a phase that has just ended.
+   *
+   * @param phase
+   *          The phase.
+   */
+  public void endPhase(final RequestPhase phase) {
+    long now = System.nanoTime();
+    long writeTimeInNanos = (meteredWriter != null) ? meteredWriter.getWriteTimeInNanos() : 0;
+    endpointMetrics.recordPhase(phase,
+        toMicros((now - lastMarkInNanos) - (writeTimeInNanos - writeTimeAtLastMarkInNanos)));
+    lastMarkInNanos = now;
+    writeTimeAtLastMarkInNanos = writeTimeInNanos;
+  }
+
+  /**
+   * Returns the writer of the response that counts the written characters and measures the time
+   * of writing. The content type and the character encoding must be set before this method is
+   * called, as for {@link HttpServletResponse#getWriter()}.
+   *
+   * @param resp
+   *          The HTTP response.
+   * @return The writer.
+   * @throws IOException
+   *           if {@link HttpServletResponse#getWriter()} throws an exception.
+   */
+  public PrintWriter getWriter(final HttpServletResponse resp) throws IOException {
+    if (writer == null) {
+      meteredWriter = new MeteredWriter(resp.getWriter());
+      writer = new PrintWriter(new BufferedWriter(meteredWriter));
+    }
+    return writer;
+  }
+
+  /**
+   * Records the size of a graph that is returned by the request.
+   *
+   * @param nodeCount
+   *          The number of the component and capability nodes.
+   * @param edgeCount
+   *          The number of the requirement edges.
+   */
+  public void recordGraphSize(final long nodeCount, final long edgeCount) {
+    endpointMetrics.recordGraphSize(nodeCount, edgeCount);
+  }
+
+  private long toMicros(final long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+}
@@ -29,6 +29,145 @@ function EcmGraph() {
   var nodeIdByUniqueClass = {};
 
   var clickedNodeClass="";
+
+  // The last graph that was received from the server. Deltas are applied on it. The generation is
+  // an opaque epoch-generation token; the server answers with the full graph if the token is from
+  // an earlier start of the plugin.
+  var graphGeneration = null;
+  var graphFilterOfModel = null;
+  var componentsById = {};
+  var capabilitiesById = {};
+
+  // The graph can be restricted to the neighborhood of a node with the node and depth parameters
+  // of the page URL
+  var resolveNeighborhoodParams = function() {
+    var result = {};
+    var query = window.location.search.substring(1).split('&');
+    for (var i = 0; i < query.length; i++) {
+      var pair = query[i].split('=');
+      if ((pair[0] == 'node' || pair[0] == 'depth') && pair.length > 1) {
+        result[pair[0]] = decodeURIComponent(pair[1].replace(/\+/g, ' '));
+      }
+    }
+    return result;
+  }
+  var neighborhoodParams = resolveNeighborhoodParams();
+
+  // Decodes the compact format of graph.json into the same objects as the normal format has
+  var decodeCompactGraph = function(data) {
+    var strings = data.strings;
+    var str = function(index) {
+      return (index < 0) ? null : strings[index];
+    }
+    var decodeMap = function(keys, values) {
+      var result = {};
+      for (var i = 0; i < keys.length; i++) {
+        var value = values[i];
+        if ($.isArray(value)) {
+          var arrayValue = [];
+          for (var j = 0; j < value.length; j++) {
+            arrayValue.push(str(value[j]));
+          }
+          result[strings[keys[i]]] = arrayValue;
+        } else {
+          result[strings[keys[i]]] = str(value);
+        }
+      }
+      return result;
+    }
+
+    var result = { generation : data.generation, components : [], capabilities : [] };
+
+    var c = data.components;
+    for (var i = 0; i < c.nodeId.length; i++) {
+      var requirements = [];
+      var encodedRequirements = c.requirements[i];
+      for (var j = 0; j < encodedRequirements.length; j += 5) {
+        requirements.push({
+          requirementId : str(encodedRequirements[j]),
+          acceptedCapabilityType : str(encodedRequirements[j + 1]),
+          capabilityNodeId : str(encodedRequirements[j + 2]),
+          clause : str(encodedRequirements[j + 3]),
+          satisfactionState : str(encodedRequirements[j + 4])
+        });
+      }
+      result.components.push({
+        nodeId : str(c.nodeId[i]),
+        name : str(c.name[i]),
+        description : str(c.description[i]),
+        state : str(c.state[i]),
+        configurationPolicy : str(c.configurationPolicy[i]),
+        properties : decodeMap(c.propertyKeys[i], c.propertyValues[i]),
+        requirements : requirements
+      });
+    }
+
+    var p = data.capabilities;
+    for (var i = 0; i < p.nodeId.length; i++) {
+      result.capabilities.push({
+        nodeId : str(p.nodeId[i]),
+        capabilityType : str(p.capabilityType[i]),
+        componentNodeId : str(p.componentNodeId[i]),
+        componentState : str(p.componentState[i]),
+        bundleId : p.bundleId[i],
+        guessed : p.guessed[i] == 1,
+        namespace : str(p.namespace[i]),
+        directives : decodeMap(p.directiveKeys[i], p.directiveValues[i]),
+        attributes : decodeMap(p.attributeKeys[i], p.attributeValues[i])
+      });
+    }
+    return result;
+  }
+
+  var storeGraphModel = function(data, graphFilter) {
+    graphGeneration = data.generation;
+    graphFilterOfModel = graphFilter;
+    componentsById = {};
+    capabilitiesById = {};
+    for (var i = 0; i < data.components.length; i++) {
+      componentsById[data.components[i].nodeId] = data.components[i];
+    }
+    for (var i = 0; i < data.capabilities.length; i++) {
+      capabilitiesById[data.capabilities[i].nodeId] = data.capabilities[i];
+    }
+  }
+
+  var applyGraphDelta = function(delta) {
+    graphGeneration = delta.generation;
+    for (var i = 0; i < delta.removedComponentNodeIds.length; i++) {
+      delete componentsById[delta.removedComponentNodeIds[i]];
+    }
+    for (var i = 0; i < delta.removedCapabilityNodeIds.length; i++) {
+      delete capabilitiesById[delta.removedCapabilityNodeIds[i]];
+    }
+    for (var i = 0; i < delta.components.length; i++) {
+      componentsById[delta.components[i].nodeId] = delta.components[i];
+    }
+    for (var i = 0; i < delta.capabilities.length; i++) {
+      capabilitiesById[delta.capabilities[i].nodeId] = delta.capabilities[i];
+    }
+  }
+
+  var isEmptyDelta = function(delta) {
+    return delta.components.length == 0 && delta.capabilities.length == 0
+        && delta.removedComponentNodeIds.length == 0
+        && delta.removedCapabilityNodeIds.length == 0;
+  }
+
+  var resolveGraphModelData = function() {
+    var data = { generation : graphGeneration, components : [], capabilities : [] };
+    for (var nodeId in componentsById) {
+      if (componentsById.hasOwnProperty(nodeId)) {
+        data.components.push(componentsById[nodeId]);
+      }
+    }
+    for (var nodeId in capabilitiesById) {
+      if (capabilitiesById.hasOwnProperty(nodeId)) {
+        data.capabilities.push(capabilitiesById[nodeId]);
+      }
+    }
+    return data;
+  }
   
   var createOrGetUniqueClassForNode = function(nodeId) {
     if (!(nodeId in ecmNodes)){
@@ -422,13 +561,38 @@ function EcmGraph() {
 	 clickedNodeClass="";
 	 onMouseLeaveHandler();
   }
+  var ecmGraphObj = this;
+  var refreshTimeout = null;
+
+  // Several state changes are usually pushed in a short time, so they are applied together
+  var scheduleRefresh = function() {
+    if (refreshTimeout == null) {
+      refreshTimeout = setTimeout(function() {
+        refreshTimeout = null;
+        ecmGraphObj.refresh();
+      }, 500);
+    }
+  }
+
+  var subscribeToStateChanges = function() {
+    if (typeof (EventSource) === 'undefined') {
+      return;
+    }
+    var eventSource = new EventSource(appRoot + '/everit_ecm_component/events');
+    eventSource.addEventListener('change', scheduleRefresh);
+    eventSource.addEventListener('reset', scheduleRefresh);
+  }
+
   $(function() {
     resizeEcmGraphSVG();
 
     $.ajax({
       url : appRoot + '/everit_ecm_component_graph/graph.json',
+      data : $.extend({ format : 'compact' }, neighborhoodParams)
     }).done(
         function(data) {
+          data = decodeCompactGraph(data);
+          storeGraphModel(data, "");
           renderECMGraph(data);
 
           // Center the graph
@@ -438,6 +602,8 @@ function EcmGraph() {
           zoom.translate([ (svgWidth - graphWidth * initialScale) / 2, 20 ])
               .scale(initialScale).event(svg);
           svg.attr('height', g.graph().height * initialScale + 40);
+
+          subscribeToStateChanges();
         });
   });
 
@@ -446,11 +612,34 @@ function EcmGraph() {
   });
 
   this.refresh = function() {
+    var graphFilter = $("#graphFilter").val();
+    var requestData = $.extend({ graphFilter : graphFilter, format : 'compact' },
+        neighborhoodParams);
+    // Only the unfiltered full graph can be refreshed by deltas
+    if (!graphFilter && graphGeneration != null && !graphFilterOfModel
+        && !neighborhoodParams.node) {
+      requestData.since = graphGeneration;
+    }
     $.ajax({
       url : appRoot + '/everit_ecm_component_graph/graph.json',
-      data : { graphFilter :  $("#graphFilter").val()}
+      data : requestData
     }).done(function(data) {
-      renderECMGraph(data);
+      if (data.format == 'compact') {
+        data = decodeCompactGraph(data);
+      }
+      if (data.removedComponentNodeIds) {
+        if (isEmptyDelta(data)) {
+          graphGeneration = data.generation;
+          return;
+        }
+        // The delta only saves the transfer and the decoding of the unchanged nodes. dagre cannot
+        // update an existing layout, so the whole graph is laid out and rendered again.
+        applyGraphDelta(data);
+        renderECMGraph(resolveGraphModelData());
+      } else {
+        storeGraphModel(data, graphFilter);
+        renderECMGraph(data);
+      }
     }).fail(function(data){
     	console.log("request failed");
     });
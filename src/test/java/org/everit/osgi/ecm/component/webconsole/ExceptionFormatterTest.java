@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExceptionFormatterTest {
+
+  private static StackTraceElement frame(final String methodName) {
+    return new StackTraceElement("com.example.Component", methodName, "Component.java", 1);
+  }
+
+  private static String printStackTrace(final Throwable throwable) {
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter printWriter = new PrintWriter(stringWriter);
+    throwable.printStackTrace(printWriter);
+    printWriter.flush();
+    return stringWriter.toString().replace(System.getProperty("line.separator"), "\n");
+  }
+
+  private Exception createCause() {
+    return new IllegalStateException("cause");
+  }
+
+  private RuntimeException createChain() {
+    Exception cause = createCause();
+    RuntimeException throwable = new RuntimeException("failure", cause);
+    throwable.addSuppressed(new IllegalArgumentException("suppressed", new Exception("nested")));
+    return throwable;
+  }
+
+  @Test
+  public void testCachedFormat() {
+    ExceptionFormatter exceptionFormatter = new ExceptionFormatter();
+    RuntimeException throwable = createChain();
+
+    String formatted = exceptionFormatter.format(throwable);
+    Assert.assertSame(formatted, exceptionFormatter.format(throwable));
+  }
+
+  @Test
+  public void testCauseSuppressedAndCycleAsPrintStackTrace() {
+    RuntimeException throwable = createChain();
+    Exception cause = (Exception) throwable.getCause();
+    // The cause refers back to the failure, so the chain is a cycle
+    cause.initCause(throwable);
+    cause.addSuppressed(throwable.getSuppressed()[0]);
+
+    ExceptionFormatter exceptionFormatter = new ExceptionFormatter(Integer.MAX_VALUE);
+    String formatted = exceptionFormatter.format(throwable);
+
+    Assert.assertEquals(printStackTrace(throwable), formatted);
+    Assert.assertTrue(formatted.contains("[CIRCULAR REFERENCE: "));
+  }
+
+  @Test
+  public void testChainAsPrintStackTrace() {
+    RuntimeException throwable = createChain();
+
+    ExceptionFormatter exceptionFormatter = new ExceptionFormatter(Integer.MAX_VALUE);
+
+    Assert.assertEquals(printStackTrace(throwable), exceptionFormatter.format(throwable));
+  }
+
+  @Test
+  public void testFramesTruncated() {
+    Exception cause = new IllegalStateException("cause");
+    cause.setStackTrace(new StackTraceElement[] { frame("inner"), frame("middle"),
+        frame("outer"), frame("run") });
+    RuntimeException throwable = new RuntimeException("failure", cause);
+    throwable.setStackTrace(new StackTraceElement[] { frame("activate"), frame("start"),
+        frame("outer"), frame("run") });
+
+    ExceptionFormatter exceptionFormatter = new ExceptionFormatter(1);
+
+    Assert.assertEquals("java.lang.RuntimeException: failure\n"
+        + "\tat com.example.Component.activate(Component.java:1)\n"
+        + "\t... 3 frames truncated\n"
+        + "Caused by: java.lang.IllegalStateException: cause\n"
+        + "\tat com.example.Component.inner(Component.java:1)\n"
+        + "\t... 1 frames truncated\n"
+        + "\t... 2 more\n",
+        exceptionFormatter.format(throwable));
+  }
+
+  @Test
+  public void testNotTruncatedWithinLimit() {
+    RuntimeException throwable = createChain();
+
+    ExceptionFormatter exceptionFormatter =
+        new ExceptionFormatter(throwable.getStackTrace().length);
+    String formatted = exceptionFormatter.format(throwable);
+
+    Assert.assertEquals(printStackTrace(throwable), formatted);
+    Assert.assertFalse(formatted.contains("frames truncated"));
+  }
+}
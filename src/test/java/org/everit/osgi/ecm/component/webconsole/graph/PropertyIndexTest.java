@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.osgi.ecm.component.webconsole.graph;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * The candidates that are found by the index must always contain the nodes that are accepted by
+ * {@link Filter#matches(Map)}.
+ */
+public class PropertyIndexTest {
+
+  private List<PropertyIndex> indexes;
+
+  private final Map<String, Map<String, Object>> propertiesByNodeId = new LinkedHashMap<>();
+
+  private void addNode(final PropertyIndex index, final String nodeId, final Object... keyValues) {
+    Map<String, Object> properties = new HashMap<>();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      properties.put((String) keyValues[i], keyValues[i + 1]);
+    }
+    index.add(nodeId, properties);
+    propertiesByNodeId.put(nodeId, properties);
+  }
+
+  private Set<String> assertSuperset(final String filterString) {
+    Filter filter = createFilter(filterString);
+    Set<String> candidates = PropertyIndex.findCandidates(filter, indexes);
+    if (candidates == null) {
+      return null;
+    }
+    for (Entry<String, Map<String, Object>> entry : propertiesByNodeId.entrySet()) {
+      if (filter.matches(entry.getValue())) {
+        Assert.assertTrue(entry.getKey() + " is not a candidate of " + filterString,
+            candidates.contains(entry.getKey()));
+      }
+    }
+    return candidates;
+  }
+
+  private Filter createFilter(final String filterString) {
+    try {
+      return FrameworkUtil.createFilter(filterString);
+    } catch (InvalidSyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    PropertyIndex firstIndex = new PropertyIndex();
+    addNode(firstIndex, "pid", "service.pid", "foo", "component.id", "a(b)");
+    addNode(firstIndex, "longerPid", "service.pid", "foobar", "objectClass",
+        new String[] { "com.example.A", "com.example.B" });
+    addNode(firstIndex, "starInPid", "service.pid", "fo*o");
+    addNode(firstIndex, "intRanking", "service.pid", "bar", "service.ranking", 5);
+    addNode(firstIndex, "maxCharInPid", "service.pid", "foo\uFFFFx");
+    addNode(firstIndex, "spaceInPid", "service.pid", "foo ");
+    addNode(firstIndex, "backslash", "name", "a\\b");
+
+    PropertyIndex secondIndex = new PropertyIndex();
+    addNode(secondIndex, "stringRanking", "service.pid", "baz", "service.ranking", "5");
+    addNode(secondIndex, "tags", "tags", Arrays.asList("x", "y"));
+    addNode(secondIndex, "mixedTags", "tags", Arrays.<Object> asList("x", 1));
+    addNode(secondIndex, "noTags", "tags", Collections.emptyList());
+    addNode(secondIndex, "noObjectClass", "objectClass", new String[0]);
+
+    indexes = Arrays.asList(firstIndex, secondIndex);
+  }
+
+  @Test
+  public void testConjunction() {
+    assertSuperset("(&(service.pid=foo*)(objectClass=com.example.A))");
+    assertSuperset("(&(service.pid=foo*)(!(service.pid=foobar)))");
+    assertSuperset("(&(service.pid=*)(|(service.pid=bar)(service.pid=baz)))");
+    assertSuperset("(&(service.ranking=5)(service.pid=ba*))");
+    assertSuperset("(&(component.id=a\\(b\\))(service.pid=foo))");
+  }
+
+  @Test
+  public void testDisjunctionAndNegation() {
+    assertSuperset("(|(service.pid=foo)(service.pid=bar))");
+    assertSuperset("(!(service.pid=foo))");
+    assertSuperset("(!(service.pid=*))");
+  }
+
+  @Test
+  public void testEscapedCharacters() {
+    assertSuperset("(service.pid=fo\\*o)");
+    assertSuperset("(component.id=a\\(b\\))");
+    assertSuperset("(name=a\\\\b)");
+    assertSuperset("(name=a\\\\*)");
+  }
+
+  @Test
+  public void testNonStringAttributes() {
+    assertSuperset("(service.ranking=5)");
+    assertSuperset("(service.ranking>=3)");
+    assertSuperset("(tags=x)");
+    assertSuperset("(tags=*)");
+    assertSuperset("(objectClass=*)");
+  }
+
+  @Test
+  public void testSimpleFilters() {
+    Assert.assertEquals(Collections.singleton("pid"), assertSuperset("(service.pid=foo)"));
+    Assert.assertNotNull(assertSuperset("(service.pid=foo*)"));
+    assertSuperset("(objectClass=com.example.B)");
+    assertSuperset("(objectClass=com.*)");
+    assertSuperset("(service.pid=*)");
+    assertSuperset("(service.pid=foo )");
+    assertSuperset("(service.pid=)");
+    assertSuperset("(service.pid~=FOO)");
+    assertSuperset("(missing=foo)");
+  }
+
+  @Test
+  public void testWildcardInTheMiddle() {
+    assertSuperset("(service.pid=fo*o)");
+    assertSuperset("(service.pid=f*b*)");
+    assertSuperset("(service.pid=*bar)");
+  }
+}